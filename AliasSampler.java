@@ -0,0 +1,98 @@
+import java.util.Arrays;
+
+/*
+ * Walker/Vose alias table over a discrete distribution. Building it is O(n),
+ * after which every draw is O(1) regardless of the number of outcomes.
+ */
+public class AliasSampler {
+
+	private final int[] outcomes;
+	private final double[] probability;
+	private final int[] alias;
+
+	/*
+	 * Builds a sampler over the counted words of a trie, weighted by their unigram counts
+	 */
+	public AliasSampler(NgramTrie trie) {
+		this(words(trie), counts(trie));
+	}
+
+	/*
+	 * Builds a sampler drawing outcomes[i] with probability weights[i] / sum(weights)
+	 */
+	public AliasSampler(int[] outcomes, double[] weights) {
+		int n = outcomes.length;
+		this.outcomes = outcomes;
+		probability = new double[n];
+		alias = new int[n];
+
+		double sum = 0;
+		for(double w: weights) {
+			sum += w;
+		}
+		if(n == 0 || sum <= 0) {
+			Arrays.fill(probability, 1.0);
+			return;
+		}
+
+		// Scale to mean 1 and split into under- and over-full buckets
+		double[] scaled = new double[n];
+		int[] small = new int[n];
+		int[] large = new int[n];
+		int smallCount = 0;
+		int largeCount = 0;
+		for(int i = 0; i < n; i++) {
+			scaled[i] = weights[i] * n / sum;
+			if(scaled[i] < 1.0) small[smallCount++] = i;
+			else large[largeCount++] = i;
+		}
+
+		// Top up each small bucket from a large one
+		while(smallCount > 0 && largeCount > 0) {
+			int s = small[--smallCount];
+			int l = large[--largeCount];
+			probability[s] = scaled[s];
+			alias[s] = l;
+			scaled[l] = (scaled[l] + scaled[s]) - 1.0;
+			if(scaled[l] < 1.0) small[smallCount++] = l;
+			else large[largeCount++] = l;
+		}
+		// Whatever is left is full up to rounding error
+		while(largeCount > 0) probability[large[--largeCount]] = 1.0;
+		while(smallCount > 0) probability[small[--smallCount]] = 1.0;
+	}
+
+	/*
+	 * Draws an outcome given a uniform random number in [0, 1).
+	 * Returns -1 if the distribution is empty.
+	 */
+	public int sample(double random) {
+		int n = outcomes.length;
+		if(n == 0) {
+			return -1;
+		}
+		double scaled = random * n;
+		int bucket = Math.min((int) scaled, n - 1);
+		return (scaled - bucket < probability[bucket]) ? outcomes[bucket] : outcomes[alias[bucket]];
+	}
+
+	private static int[] words(NgramTrie trie) {
+		int[] words = new int[trie.size(1)];
+		int size = 0;
+		for(int word = 0; word < trie.size(1); word++) {
+			if(trie.find(1, -1, word) != -1) {
+				words[size++] = word;
+			}
+		}
+		return Arrays.copyOf(words, size);
+	}
+
+	private static double[] counts(NgramTrie trie) {
+		int[] words = words(trie);
+		double[] counts = new double[words.length];
+		for(int i = 0; i < words.length; i++) {
+			counts[i] = trie.count(1, words[i]);
+		}
+		return counts;
+	}
+}
@@ -0,0 +1,294 @@
+/*
+ * Backoff model in the ARPA layout: every n-gram stores log10 P(last word | prefix)
+ * and every context stores a log10 backoff weight, so a word that was not seen
+ * after its context costs the weights of the contexts it backs off through plus
+ * one stored probability. Everything is precomputed when the model is built.
+ *
+ * Katz backoff discounts the raw counts with the Good-Turing counts of the Parser.
+ * Interpolated Kneser-Ney discounts the counts of the highest order and the
+ * continuation counts of the lower ones, and interpolates the lowest with the
+ * uniform distribution, so unseen words get a share. Sentence starts are given
+ * rather than predicted, so START always scores 0.
+ */
+public class BackoffModel extends ContextModel {
+
+	private final Smoothing smoothing;
+	// log10 P(word), by word id
+	private final double[] unigramLogs;
+	// log10 P(last word | prefix), by order and then by trie entry
+	private final double[][] ngramLogs;
+	// log10 backoff weight, by order and then by trie entry
+	private final double[][] backoffLogs;
+
+	/*
+	 * Builds the model of orders 1 to order. Katz needs the Good-Turing counts of those
+	 * orders in smoothed, indexed by order and viewing the same trie; Kneser-Ney ignores them.
+	 */
+	BackoffModel(Vocabulary vocabulary, NgramTrie trie, SmoothedCounts[] smoothed, int order, Smoothing smoothing) {
+		super(vocabulary, trie, order);
+		this.smoothing = smoothing;
+
+		ngramLogs = new double[order + 1][];
+		backoffLogs = new double[order + 1][];
+		if(smoothing == Smoothing.KATZ) {
+			unigramLogs = katzUnigrams(smoothed[1]);
+			for(int n = 2; n <= order; n++) {
+				buildKatz(n, smoothed[n]);
+			}
+		} else {
+			double[][] adjusted = adjustedCounts();
+			unigramLogs = kneserNeyUnigrams(adjusted[1]);
+			for(int n = 2; n <= order; n++) {
+				buildKneserNey(n, adjusted[n]);
+			}
+		}
+	}
+
+	public Smoothing getSmoothing() {
+		return smoothing;
+	}
+
+	public double term(int state, int t) {
+		if(t == Vocabulary.START) {
+			return 0;
+		}
+		return -logProbability((state == -1 || order == 1) ? 0 : state, t);
+	}
+
+	/*
+	 * Returns log10 P(t | context of the state), backing off through shorter contexts
+	 */
+	private double logProbability(int state, int t) {
+		double backoff = 0;
+		while(true) {
+			int length = length(state);
+			int context = context(state);
+			if(length == 0) {
+				return backoff + unigramLogs[t];
+			}
+			int seen = find(length + 1, context, t);
+			if(seen != -1) {
+				return backoff + ngramLogs[length + 1][seen];
+			}
+			backoff += backoffLogs[length][context];
+			state = suffix(length, context);
+		}
+	}
+
+	/*
+	 * log10 P(last word | all but the first word) of an n-gram, from the orders below n
+	 */
+	private double lowerLogProbability(int[] ngram, int n) {
+		return logProbability(longestState(ngram, 1, n - 1), ngram[n - 1]);
+	}
+
+	/*
+	 * Number of contexts of the n-grams of order n, the entries of order n - 1
+	 */
+	private int contexts(int n) {
+		return trie.size(n - 1);
+	}
+
+	/*
+	 * Unigram probabilities of every word but START, which is never predicted
+	 */
+	private double[] katzUnigrams(SmoothedCounts gtunigrams) {
+		double sum = 0;
+		for(int word = 0; word < known.length; word++) {
+			if(known[word] && word != Vocabulary.START) {
+				sum += gtunigrams.get(word);
+			}
+		}
+		double[] logs = new double[vocabulary.size()];
+		java.util.Arrays.fill(logs, Double.NEGATIVE_INFINITY);
+		for(int word = 0; word < known.length; word++) {
+			if(known[word] && word != Vocabulary.START) {
+				logs[word] = Math.log10(gtunigrams.get(word)/sum);
+			}
+		}
+		return logs;
+	}
+
+	/*
+	 * Katz backoff for order n: P = (c* / c) * c / c(context) for seen n-grams, and the
+	 * mass left over in the context is spread over the unseen words by the backoff weight
+	 */
+	private void buildKatz(int n, SmoothedCounts gt) {
+		int contexts = contexts(n);
+		int size = trie.size(n);
+		long[] totals = new long[contexts];
+		for(int c = 0; c < contexts; c++) {
+			totals[c] = trie.continuationTotal(n - 1, c);
+		}
+
+		double[] probabilities = new double[size];
+		double[] lower = new double[size];
+		double[] seenMass = new double[contexts];
+		double[] lowerMass = new double[contexts];
+		int[] ngram = new int[n];
+		for(int c = 0; c < contexts; c++) {
+			for(int node = trie.continuationStart(n - 1, c); node < trie.continuationEnd(n - 1, c); node++) {
+				int count = trie.count(n, node);
+				trie.words(n, node, ngram);
+				lower[node] = lowerLogProbability(ngram, n);
+				if(count > 0) {
+					// Only discounts between 0 and 1 are applied
+					double discount = gt.get(node) / count;
+					if(!(discount > 0 && discount <= 1)) {
+						discount = 1;
+					}
+					probabilities[node] = discount * count / totals[c];
+					seenMass[c] += probabilities[node];
+					lowerMass[c] += Math.pow(10, lower[node]);
+				}
+			}
+		}
+
+		// Contexts whose counts were all too high to be discounted keep 1 / (c + 1)
+		// of their mass for unseen words, as if one more unseen word had been counted
+		backoffLogs[n - 1] = new double[contexts];
+		double[] scales = new double[contexts];
+		for(int c = 0; c < contexts; c++) {
+			scales[c] = 1;
+			if(totals[c] == 0) {
+				continue;
+			}
+			double left = 1 - seenMass[c];
+			double floor = 1.0 / (totals[c] + 1);
+			if(left < floor) {
+				scales[c] = (1 - floor) / seenMass[c];
+				left = floor;
+			}
+			double unseenLower = 1 - lowerMass[c];
+			backoffLogs[n - 1][c] = Math.log10((unseenLower > 0) ? left / unseenLower : left);
+		}
+
+		ngramLogs[n] = new double[size];
+		for(int c = 0; c < contexts; c++) {
+			for(int node = trie.continuationStart(n - 1, c); node < trie.continuationEnd(n - 1, c); node++) {
+				if(trie.count(n, node) > 0) {
+					ngramLogs[n][node] = Math.log10(probabilities[node] * scales[c]);
+				} else {
+					// Entries kept only as prefixes score like unseen n-grams
+					ngramLogs[n][node] = backoffLogs[n - 1][c] + lower[node];
+				}
+			}
+		}
+	}
+
+	/*
+	 * Kneser-Ney counts by order and trie entry: raw counts for the highest order and for
+	 * n-grams starting a sentence, otherwise the number of distinct words seen before the n-gram
+	 */
+	private double[][] adjustedCounts() {
+		double[][] adjusted = new double[order + 1][];
+		adjusted[1] = new double[vocabulary.size()];
+		for(int n = 2; n <= order; n++) {
+			adjusted[n] = new double[trie.size(n)];
+		}
+
+		int[] ngram = new int[order];
+		for(int n = 1; n <= order; n++) {
+			for(int node = 0; node < trie.size(n); node++) {
+				if(n == 1 && !known[node]) {
+					continue;
+				}
+				trie.words(n, node, ngram);
+				if(n == order || ngram[0] == Vocabulary.START) {
+					adjusted[n][node] = trie.count(n, node);
+				}
+			}
+			if(n == order) {
+				break;
+			}
+
+			// Each seen (n + 1)-gram is one left extension of its suffix
+			for(int node = 0; node < trie.size(n + 1); node++) {
+				if(trie.count(n + 1, node) == 0) {
+					continue;
+				}
+				trie.words(n + 1, node, ngram);
+				int suffix = ngram[1];
+				for(int a = 2; a <= n && suffix != -1; a++) {
+					suffix = find(a, suffix, ngram[a]);
+				}
+				if(suffix != -1) {
+					adjusted[n][suffix]++;
+				}
+			}
+		}
+		return adjusted;
+	}
+
+	/*
+	 * Discount D = n1 / (n1 + 2 n2) of a level of adjusted counts
+	 */
+	private static double discount(double[] adjusted) {
+		int n1 = 0;
+		int n2 = 0;
+		for(double c: adjusted) {
+			if(c == 1) n1++;
+			else if(c == 2) n2++;
+		}
+		return (n1 > 0) ? (double) n1 / (n1 + 2 * n2) : 0.5;
+	}
+
+	private double[] kneserNeyUnigrams(double[] adjusted) {
+		adjusted[Vocabulary.START] = 0;
+		double d = discount(adjusted);
+		double total = 0;
+		int types = 0;
+		for(double c: adjusted) {
+			total += c;
+			if(c > 0) types++;
+		}
+
+		// Uniform over every word but START
+		int words = vocabulary.size() - 1;
+		double[] logs = new double[vocabulary.size()];
+		logs[Vocabulary.START] = Double.NEGATIVE_INFINITY;
+		for(int w = 0; w < logs.length; w++) {
+			if(w == Vocabulary.START) {
+				continue;
+			}
+			double p = (total > 0) ? (Math.max(adjusted[w] - d, 0) + d * types / (double) words) / total : 1.0 / words;
+			logs[w] = Math.log10(p);
+		}
+		return logs;
+	}
+
+	/*
+	 * Interpolated Kneser-Ney for order n: P = max(c - D, 0) / c(context) + gamma(context) * P_lower,
+	 * with gamma(context) = D * (number of words seen after the context) / c(context)
+	 */
+	private void buildKneserNey(int n, double[] adjusted) {
+		int contexts = contexts(n);
+		double d = discount(adjusted);
+		double[] totals = new double[contexts];
+		int[] types = new int[contexts];
+		for(int c = 0; c < contexts; c++) {
+			for(int node = trie.continuationStart(n - 1, c); node < trie.continuationEnd(n - 1, c); node++) {
+				totals[c] += adjusted[node];
+				if(adjusted[node] > 0) types[c]++;
+			}
+		}
+
+		backoffLogs[n - 1] = new double[contexts];
+		for(int c = 0; c < contexts; c++) {
+			if(totals[c] > 0) {
+				backoffLogs[n - 1][c] = Math.log10(d * types[c] / totals[c]);
+			}
+		}
+
+		ngramLogs[n] = new double[trie.size(n)];
+		int[] ngram = new int[n];
+		for(int c = 0; c < contexts; c++) {
+			for(int node = trie.continuationStart(n - 1, c); node < trie.continuationEnd(n - 1, c); node++) {
+				trie.words(n, node, ngram);
+				double lower = Math.pow(10, backoffLogs[n - 1][c] + lowerLogProbability(ngram, n));
+				double discounted = (totals[c] > 0) ? Math.max(adjusted[node] - d, 0) / totals[c] : 0;
+				ngramLogs[n][node] = Math.log10(discounted + lower);
+			}
+		}
+	}
+}
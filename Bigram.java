@@ -1,54 +0,0 @@
-
-public class Bigram {
-
-	private Token first;
-	private Token second;
-	
-	public Bigram(Token f, Token s) {
-		first = f;
-		second = s;
-	}
-
-	public Token getFirst() {
-		return first;
-	}
-	
-	public Token getSecond() {
-		return second;
-	}
-
-	@Override
-	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + ((first == null) ? 0 : first.hashCode());
-		result = prime * result + ((second == null) ? 0 : second.hashCode());
-		return result;
-	}
-
-	@Override
-	public boolean equals(Object obj) {
-		if (this == obj)
-			return true;
-		if (obj == null)
-			return false;
-		if (getClass() != obj.getClass())
-			return false;
-		Bigram other = (Bigram) obj;
-		if (first == null) {
-			if (other.first != null)
-				return false;
-		} else if (!first.equals(other.first))
-			return false;
-		if (second == null) {
-			if (other.second != null)
-				return false;
-		} else if (!second.equals(other.second))
-			return false;
-		return true;
-	}
-	
-	public String printVal() {
-		return "[" + first.printVal() + "; " + second.printVal() + "]";
-	}
-}
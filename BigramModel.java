@@ -0,0 +1,69 @@
+/*
+ * Immutable scoring view of a smoothed bigram model. Everything the
+ * perplexity loop needs is precomputed per word id or per bigram entry of
+ * the trie when the model is built, so scoring a token is one search of the
+ * continuations of the previous word and an array read.
+ * The model reads a snapshot of the counts: n-grams counted after it was built are unseen.
+ */
+public class BigramModel implements ScoringModel {
+
+	private final Vocabulary vocabulary;
+	private final NgramTrie trie;
+
+	// Indexed by word id
+	private final boolean[] known;
+	private final double[] firstTerms;
+	private final double[] unseenTerms;
+	// Indexed by bigram entry of the trie
+	private final double[] bigramTerms;
+
+	/*
+	 * Builds the model from the smoothed unigrams and bigrams of a parser, views of the same trie
+	 */
+	BigramModel(Vocabulary vocabulary, SmoothedCounts gtunigrams, double unigramSum,
+			SmoothedCounts gtbigrams, double unseenCount) {
+		this.vocabulary = vocabulary;
+		this.trie = gtbigrams.getTrie();
+
+		int words = trie.size(1);
+		known = new boolean[words];
+		firstTerms = new double[words];
+		unseenTerms = new double[words];
+		double[] contextCounts = new double[words];
+		for(int word = 0; word < words; word++) {
+			if(trie.find(1, -1, word) == -1) {
+				continue;
+			}
+			double gt = gtunigrams.get(word);
+			known[word] = true;
+			contextCounts[word] = gt;
+			firstTerms[word] = Math.log10(gt/unigramSum);
+			unseenTerms[word] = Math.log10(1/(unseenCount/gt));
+		}
+
+		bigramTerms = new double[trie.size(2)];
+		for(int prev = 0; prev < words; prev++) {
+			for(int node = trie.continuationStart(1, prev); node < trie.continuationEnd(1, prev); node++) {
+				bigramTerms[node] = Math.log10(1/(gtbigrams.get(node)/contextCounts[prev]));
+			}
+		}
+	}
+
+	public int scoringId(String text, int start, int end) {
+		int id = vocabulary.id(text, start, end);
+		return (id == -1 || id >= known.length || !known[id]) ? Vocabulary.UNK : id;
+	}
+
+	public double term(int prev_word, int t) {
+		if(prev_word == -1) {
+			return firstTerms[t];
+		}
+		if(t != Vocabulary.UNK && prev_word != Vocabulary.UNK) {
+			int seen = trie.find(2, prev_word, t);
+			if(seen != -1) {
+				return bigramTerms[seen];
+			}
+		}
+		return unseenTerms[prev_word];
+	}
+}
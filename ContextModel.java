@@ -0,0 +1,142 @@
+/*
+ * Base of the scoring models of any order over an NgramTrie. The scoring state is
+ * the longest context of at most order - 1 words that was seen in training,
+ * packed as (trie entry << 3) | length, where a length 0 state has no context.
+ * Contexts are extended and shortened by searching the trie, so the model reads
+ * a snapshot of the counts. Subclasses only say how a word is scored in a state.
+ */
+public abstract class ContextModel implements ScoringModel {
+
+	private static final int LENGTH_BITS = 3;
+	private static final int LENGTH_MASK = (1 << LENGTH_BITS) - 1;
+	private static final int ID_LIMIT = 1 << (31 - LENGTH_BITS);
+
+	protected final Vocabulary vocabulary;
+	protected final NgramTrie trie;
+	protected final int order;
+
+	// Indexed by word id
+	protected final boolean[] known;
+	// State of the longest seen proper suffix of each context, by order and trie entry
+	private final int[][] suffixStates;
+
+	/*
+	 * The trie must hold the orders 1 to order
+	 */
+	ContextModel(Vocabulary vocabulary, NgramTrie trie, int order) {
+		this.vocabulary = vocabulary;
+		this.trie = trie;
+		this.order = order;
+		for(int n = 1; n <= order; n++) {
+			if(trie.size(n) >= ID_LIMIT) {
+				throw new IllegalStateException("Too many " + n + "-grams for an order " + order + " model");
+			}
+		}
+
+		known = new boolean[trie.size(1)];
+		for(int word = 0; word < known.length; word++) {
+			known[word] = trie.find(1, -1, word) != -1;
+		}
+
+		// A bigram context reads its suffix off its last word, longer ones are precomputed
+		suffixStates = new int[order + 1][];
+		int[] ngram = new int[order];
+		for(int n = 3; n < order; n++) {
+			suffixStates[n] = new int[trie.size(n)];
+			for(int node = 0; node < trie.size(n); node++) {
+				trie.words(n, node, ngram);
+				suffixStates[n][node] = longestState(ngram, 1, n);
+			}
+		}
+	}
+
+	public int getOrder() {
+		return order;
+	}
+
+	public int scoringId(String text, int start, int end) {
+		int id = vocabulary.id(text, start, end);
+		return (id == -1 || id >= known.length || !known[id]) ? Vocabulary.UNK : id;
+	}
+
+	public int next(int state, int t) {
+		if(order == 1) {
+			return 0;
+		}
+		if(state == -1) {
+			state = 0;
+		}
+
+		// Drop words from the front of the context until it extends with t
+		while(true) {
+			int length = length(state);
+			int context = context(state);
+			if(length == 0) {
+				return known[t] ? state(1, t) : 0;
+			}
+			if(length < order - 1) {
+				int extended = find(length + 1, context, t);
+				if(extended != -1) {
+					return state(length + 1, extended);
+				}
+			}
+			state = suffix(length, context);
+		}
+	}
+
+	/*
+	 * Returns the state of the longest seen suffix of the context, shorter than it
+	 */
+	protected int suffix(int length, int context) {
+		if(length == 1) {
+			return 0;
+		}
+		if(length == 2) {
+			int word = trie.word(2, context);
+			return known[word] ? state(1, word) : 0;
+		}
+		return suffixStates[length][context];
+	}
+
+	/*
+	 * Returns the state of the longest seen suffix of ngram[from, to)
+	 */
+	protected int longestState(int[] ngram, int from, int to) {
+		for(int start = from; start < to; start++) {
+			int context = ngram[start];
+			if(!known[context]) {
+				continue;
+			}
+			int length = 1;
+			for(int a = start + 1; a < to && context != -1; a++) {
+				context = find(++length, context, ngram[a]);
+			}
+			if(context != -1) {
+				return state(to - start, context);
+			}
+		}
+		return 0;
+	}
+
+	/*
+	 * Returns the trie entry of the n-gram (context, word), or -1 if the model did not see it
+	 */
+	protected int find(int n, int context, int word) {
+		if(n == 1) {
+			return known[word] ? word : -1;
+		}
+		return trie.find(n, context, word);
+	}
+
+	protected static int state(int length, int context) {
+		return (context << LENGTH_BITS) | length;
+	}
+
+	protected static int length(int state) {
+		return state & LENGTH_MASK;
+	}
+
+	protected static int context(int state) {
+		return state >>> LENGTH_BITS;
+	}
+}
@@ -0,0 +1,134 @@
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.text.BreakIterator;
+import java.util.Locale;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+public class CorpusReader {
+
+	// Number of cleaned characters collected before sentences are split off
+	private static final int BLOCK_SIZE = 1 << 16;
+	// Upper bound on a single unterminated sentence before it is flushed anyway
+	private static final int MAX_PENDING = 1 << 22;
+	private static final int READ_BUFFER = 1 << 16;
+
+	private static final Pattern VERSE_NUMBER = Pattern.compile("[0-9]+:[0-9]+");
+	private static final Pattern ANNOTATION = Pattern.compile("<.*>");
+	private static final Pattern REVIEW_LABEL = Pattern.compile("[0-9?],[0-9?],");
+
+	private static final Metrics.Counter CHARS = Metrics.counter("corpus.chars");
+	private static final Metrics.Counter LINES = Metrics.counter("corpus.lines");
+
+	private String filename;
+	private String type;
+
+	/*
+	 * Create a reader for the given file
+	 * "b" = bible, "h" = hotel, anything else is read as is
+	 */
+	public CorpusReader(String name, String type) {
+		filename = name;
+		this.type = type;
+	}
+
+	/*
+	 * Reads the file line by line and hands each cleaned line to the handler.
+	 * Lines are split on '\n' only, so the cleanup rules see exactly what they
+	 * would see when applied to the whole file at once.
+	 */
+	public void readLines(Consumer<String> handler) throws IOException {
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(filename), Charset.defaultCharset()), READ_BUFFER)) {
+			char[] buffer = new char[READ_BUFFER];
+			StringBuilder line = new StringBuilder();
+			int read;
+			while((read = reader.read(buffer)) != -1) {
+				CHARS.add(read);
+				int start = 0;
+				for(int a = 0; a < read; a++) {
+					if(buffer[a] == '\n') {
+						line.append(buffer, start, a - start);
+						handler.accept(cleanLine(line.toString()));
+						LINES.increment();
+						line.setLength(0);
+						start = a + 1;
+					}
+				}
+				line.append(buffer, start, read - start);
+			}
+			if(line.length() > 0) {
+				handler.accept(cleanLine(line.toString()));
+			}
+		}
+	}
+
+	/*
+	 * Reads the file incrementally and hands each trimmed sentence to the handler.
+	 * Line breaks are dropped and only a small window of text is kept in memory,
+	 * so memory use does not depend on the size of the corpus.
+	 */
+	public void readSentences(Consumer<String> handler) throws IOException {
+		SentenceSplitter splitter = new SentenceSplitter(handler);
+		readLines(splitter);
+		splitter.flush(true);
+	}
+
+	/*
+	 * Collects cleaned lines and splits complete sentences off the front
+	 */
+	private static class SentenceSplitter implements Consumer<String> {
+
+		private final Consumer<String> handler;
+		private final StringBuilder pending = new StringBuilder();
+		private final BreakIterator iterator = BreakIterator.getSentenceInstance(Locale.US);
+		private int threshold = BLOCK_SIZE;
+
+		SentenceSplitter(Consumer<String> handler) {
+			this.handler = handler;
+		}
+
+		public void accept(String line) {
+			pending.append(line);
+			if(pending.length() >= threshold) {
+				flush(pending.length() >= MAX_PENDING);
+				// Don't rescan a long unterminated sentence on every line
+				threshold = pending.length() + BLOCK_SIZE;
+			}
+		}
+
+		/*
+		 * Splits the pending text into sentences and emits them. Unless this is the
+		 * final flush, the last sentence is kept back since it may continue on the next line.
+		 */
+		void flush(boolean all) {
+			String text = pending.toString();
+			iterator.setText(text);
+			int start = iterator.first();
+			for(int end = iterator.next(); end != BreakIterator.DONE; start = end, end = iterator.next()) {
+				if(!all && end == text.length()) {
+					break;
+				}
+				handler.accept(text.substring(start, end).trim());
+			}
+			pending.delete(0, all ? pending.length() : start);
+		}
+	}
+
+	/*
+	 * Applies the preprocessing rules of the corpus type to a single line
+	 */
+	private String cleanLine(String line) {
+		switch(type) {
+		case "b":	// process bible
+			return ANNOTATION.matcher(VERSE_NUMBER.matcher(line).replaceAll("")).replaceAll("");
+		case "h":	// process hotel
+			return REVIEW_LABEL.matcher(line).replaceAll("");
+		default:
+			return line;
+		}
+	}
+}
@@ -1,180 +1,254 @@
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.DoubleSupplier;
+import java.util.function.Function;
 
 public class Generator {
 	
+	private static final Random RANDOM = new Random();
+	// Sentences generated from one random stream in the batch API
+	private static final int BATCH_BLOCK = 1024;
+	
 	/*
 	 * Generates a random sentence based on a unigram language model.
 	 */
-	public static String randomUnigramSentence(HashMap<Token,Double> unigrams) {
-        //int total = getTotal(unigrams);
-        String sentence = "";
+	public static String randomUnigramSentence(AliasSampler unigrams, Vocabulary vocabulary) {
+		return randomUnigramSentence(unigrams, vocabulary, RANDOM);
+	}
+	
+	/*
+	 * Generates a random sentence based on a unigram language model,
+	 * drawing from the given random source so the output can be reproduced.
+	 */
+	public static String randomUnigramSentence(AliasSampler unigrams, Vocabulary vocabulary, Random random) {
+		return randomUnigramSentence(unigrams, vocabulary, random::nextDouble);
+	}
+	
+	/*
+	 * Generates a random sentence based on a unigram language model,
+	 * taking uniform numbers in [0, 1) from the given source.
+	 */
+	public static String randomUnigramSentence(AliasSampler unigrams, Vocabulary vocabulary, DoubleSupplier random) {
+        StringBuilder sentence = new StringBuilder();
         boolean isEnd = false; //boolean indicating whether sentence is done
 
         //count words of corpus
         while (!isEnd) {
-        	Token next = selectUnigramWithProbability(unigrams);
-        	if(next == null || next.getType() == TokenType.END) {
+        	int next = unigrams.sample(random.getAsDouble());
+        	if(next == -1 || next == Vocabulary.END) {
         		isEnd = true;
-        	} else if(next.getType() == TokenType.START) {
+        	} else if(next == Vocabulary.START) {
         		continue;
-        	} else if(sentence.length() == 0 && next.getWord().length() != 0) { // capitalize first word of the sentence
-            	String word = next.getWord();
-        		word = word.substring(0,1).toUpperCase()
-    					+ word.substring(1,word.length());
-        		sentence += word + " ";
+        	} else if(sentence.length() == 0 && vocabulary.word(next).length() != 0) { // capitalize first word of the sentence
+            	String word = vocabulary.word(next);
+        		sentence.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length()).append(' ');
         	} else {
-        		sentence += next.getWord() + " ";
+        		sentence.append(vocabulary.word(next)).append(' ');
         	}
         }
         
-        return sentence;
+        return sentence.toString();
     }
 	
-	/* 
-	 * Selects a Token with probability according to its corresponding value 
-	 * with roulette style selection
+	/*
+	 * Generates a random sentence based on a bigram language model.
 	 */
-    public static Token selectUnigramWithProbability(HashMap<Token,Double> model) {
-		int sum = 0;
-		for(Double count: model.values()) {
-			sum += count;
-		}
+	public static String randomBigramSentence(NgramTrie bigram_model, Vocabulary vocabulary) {
+		return randomBigramSentence(bigram_model, vocabulary, RANDOM);
+	}
+	
+	/*
+	 * Generates a random sentence based on a bigram language model,
+	 * drawing from the given random source so the output can be reproduced.
+	 */
+	public static String randomBigramSentence(NgramTrie bigram_model, Vocabulary vocabulary, Random random) {
+		return randomBigramSentence(bigram_model, vocabulary, random::nextDouble);
+	}
+	
+	/*
+	 * Generates a random sentence based on a bigram language model,
+	 * taking uniform numbers in [0, 1) from the given source.
+	 */
+	public static String randomBigramSentence(NgramTrie bigram_model, Vocabulary vocabulary, DoubleSupplier random) {
+		StringBuilder sentence = new StringBuilder();
+		int prev_word = Vocabulary.START;
 		
-		double rand = (Math.random() * sum);
-		int cur = 0;
-		for(Token t: model.keySet()) {
-			cur += model.get(t);
-			if(cur > rand) {
-				return t;
+		while(prev_word != Vocabulary.END) {
+			// Select the next word according to bigram probabilities
+			int node = bigram_model.sample(1, prev_word, random.getAsDouble());
+			if(node == -1) {
+				break;
+			}
+			int next = bigram_model.word(2, node);
+			
+			// Words are separated by spaces, except that the last one is
+			// attached to the one before (usually the closing punctuation)
+			if(next != Vocabulary.END && prev_word != Vocabulary.START) {
+				sentence.append(' ');
 			}
+			if(vocabulary.type(prev_word) == TokenType.WORD) {
+				sentence.append(vocabulary.word(prev_word));
+			}
+			prev_word = next;
 		}
-		return null;
-    }
+		
+		return (sentence.length() == 0) ? "" : sentence.substring(1);
+	}
 	
+	/*
+	 * Generates a random sentence based on a trigram language model.
+	 */
+	public static String randomTrigramSentence(NgramTrie trie, Vocabulary vocabulary) {
+		return randomTrigramSentence(trie, vocabulary, RANDOM);
+	}
 	
 	/*
-	 * Generates a random sentence based on a bigram language model.
+	 * Generates a random sentence based on a trigram language model,
+	 * drawing from the given random source so the output can be reproduced.
 	 */
-	public static String randomBigramSentence(HashMap<Bigram, Double> bigram_model) {
-		
-		ArrayList<Bigram> sentence_arr = new ArrayList<>();
-		Token prev_word = null;
+	public static String randomTrigramSentence(NgramTrie trie, Vocabulary vocabulary, Random random) {
+		return randomTrigramSentence(trie, vocabulary, random::nextDouble);
+	}
+	
+	/*
+	 * Generates a random sentence based on a trigram language model,
+	 * taking uniform numbers in [0, 1) from the given source.
+	 */
+	public static String randomTrigramSentence(NgramTrie trie, Vocabulary vocabulary, DoubleSupplier random) {
+		return randomNgramSentence(trie, 3, vocabulary, random);
+	}
+	
+	/*
+	 * Generates a random sentence based on the n-gram model of order n,
+	 * from 2 up to the order of the trie.
+	 * Each word is drawn from the continuations of the longest context of at most
+	 * n - 1 words that has any, so a dead end backs off to shorter contexts.
+	 */
+	public static String randomNgramSentence(NgramTrie trie, int n, Vocabulary vocabulary, DoubleSupplier random) {
+		StringBuilder sentence = new StringBuilder();
+		int[] history = new int[n - 1];
+		int length = 0;
+		int prev_word = Vocabulary.START;
+		history[length++] = prev_word;
 		
-		while(prev_word == null || prev_word.getType() != TokenType.END) {
-			// Construct map of bigrams matching the previous word
-			HashMap<Bigram, Double> possible_bigrams = new HashMap<>();
-			for(Bigram b: bigram_model.keySet()) {
-				if(prev_word == null) {
-					if(b.getFirst().getType() == TokenType.START) {
-						possible_bigrams.put(b, bigram_model.get(b));
-					}
-				} else if(b.getFirst().equals(prev_word)){
-					possible_bigrams.put(b, bigram_model.get(b));
+		while(prev_word != Vocabulary.END) {
+			// Select the next word from the longest context that continues
+			int next = -1;
+			for(int from = 0; from < length && next == -1; from++) {
+				int context = trie.find(history, from, length);
+				int node = (context == -1) ? -1 : trie.sample(length - from, context, random.getAsDouble());
+				if(node != -1) {
+					next = trie.word(length - from + 1, node);
 				}
 			}
-			
-			// Select the next word according to bigram probabilities
-			Bigram next = selectBigramWithProbability(possible_bigrams);
-			if(next == null) {
+			if(next == -1) {
 				break;
 			}
-			sentence_arr.add(next);
-			prev_word = sentence_arr.get(sentence_arr.size() - 1).getSecond();
-		}
-		
-		String sentence = "";
-		for(Bigram b: sentence_arr) {
-			if(b.getSecond().getType() != TokenType.END && b.getFirst().getType() != TokenType.START) {
-				sentence += " ";
+			
+			// Words are separated by spaces, except that the last one is
+			// attached to the one before (usually the closing punctuation)
+			if(next != Vocabulary.END && prev_word != Vocabulary.START) {
+				sentence.append(' ');
 			}
-			if(b.getFirst().getType() == TokenType.WORD) {
-				sentence += b.getFirst().getWord();
-			} 
-
+			if(vocabulary.type(prev_word) == TokenType.WORD) {
+				sentence.append(vocabulary.word(prev_word));
+			}
+			
+			// Keep the last n - 1 words
+			if(length == history.length) {
+				System.arraycopy(history, 1, history, 0, --length);
+			}
+			history[length++] = next;
+			prev_word = next;
 		}
-		return sentence.substring(1);
+		
+		return (sentence.length() == 0) ? "" : sentence.substring(1);
 	}
 	
-	/* 
-	 * Selects a Bigram with probability according to its corresponding value 
-	 * with roulette style selection
-	 * 
-	 * The number of occurrences of the preceding word should be the same as the 
-	 * sum of all values in the model received
+	/*
+	 * Generates count unigram sentences on the given number of threads.
+	 * The result only depends on the seed, not on the number of threads.
 	 */
-	private static Bigram selectBigramWithProbability(HashMap<Bigram, Double> model) {
-		int sum = 0;
-		for(Double count: model.values()) {
-			sum += count;
-		}
-		
-		double rand = (Math.random() * sum);
-		int cur = 0;
-		for(Bigram b: model.keySet()) {
-			cur += model.get(b);
-			if(cur > rand) {
-				return b;
+	public static String[] randomUnigramSentences(final AliasSampler unigrams, final Vocabulary vocabulary,
+			int count, int threads, long seed) {
+		return generate(random -> randomUnigramSentence(unigrams, vocabulary, random), count, threads, seed);
+	}
+	
+	/*
+	 * Generates count bigram sentences on the given number of threads.
+	 * The result only depends on the seed, not on the number of threads.
+	 */
+	public static String[] randomBigramSentences(final NgramTrie bigram_model, final Vocabulary vocabulary,
+			int count, int threads, long seed) {
+		return generate(random -> randomBigramSentence(bigram_model, vocabulary, random), count, threads, seed);
+	}
+	
+	/*
+	 * Generates count trigram sentences on the given number of threads.
+	 * The result only depends on the seed, not on the number of threads.
+	 */
+	public static String[] randomTrigramSentences(final NgramTrie trie, final Vocabulary vocabulary,
+			int count, int threads, long seed) {
+		return generate(random -> randomTrigramSentence(trie, vocabulary, random), count, threads, seed);
+	}
+	
+	/*
+	 * Splits the work into fixed blocks of sentences, each drawing from its own
+	 * SplittableRandom stream split off the seeded root in block order
+	 */
+	private static String[] generate(final Function<DoubleSupplier, String> generator,
+			int count, int threads, long seed) {
+		final String[] sentences = new String[count];
+		SplittableRandom root = new SplittableRandom(seed);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			ArrayList<Future<?>> blocks = new ArrayList<>();
+			for(int start = 0; start < count; start += BATCH_BLOCK) {
+				final int from = start;
+				final int to = Math.min(count, start + BATCH_BLOCK);
+				final SplittableRandom random = root.split();
+				blocks.add(pool.submit(() -> {
+					DoubleSupplier source = random::nextDouble;
+					for(int a = from; a < to; a++) {
+						sentences[a] = generator.apply(source);
+					}
+				}));
 			}
+			for(Future<?> block: blocks) {
+				block.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Generation was interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Generating a block failed", e.getCause());
+		} finally {
+			pool.shutdownNow();
 		}
-		return null;
+		return sentences;
 	}
 	
 	public static void main(String[] args) {
-		// Test models
-		// "The grey fox likes cats.", "The grey fox hates dogs.", "The red fox likes Pokemon."
-		// "The grey deer likes cookies.", "The grey fox likes DeadMau5.", "The red deer hates Muppets."
-		
-		HashMap<Token, Double> unigram_model = new HashMap<>();
-		
-		unigram_model.put(new Token("The", TokenType.WORD), 6.0);
-		unigram_model.put(new Token("grey", TokenType.WORD), 4.0);
-		unigram_model.put(new Token("red", TokenType.WORD), 2.0);
-		unigram_model.put(new Token("fox", TokenType.WORD), 4.0);
-		unigram_model.put(new Token("deer", TokenType.WORD), 2.0);
-		unigram_model.put(new Token("likes", TokenType.WORD), 4.0);
-		unigram_model.put(new Token("hates", TokenType.WORD), 2.0);
-		unigram_model.put(new Token("cats", TokenType.WORD), 1.0);
-		unigram_model.put(new Token("dogs", TokenType.WORD), 1.0);
-		unigram_model.put(new Token("Pokemon", TokenType.WORD), 1.0);
-		unigram_model.put(new Token("cookies", TokenType.WORD), 1.0);
-		unigram_model.put(new Token("DeadMau5", TokenType.WORD), 1.0);
-		unigram_model.put(new Token("Muppets", TokenType.WORD), 1.0);
-		unigram_model.put(new Token(null, TokenType.START), 6.0);
-		unigram_model.put(new Token(".", TokenType.WORD), 6.0);
-		unigram_model.put(new Token(null, TokenType.END), 6.0);
-
-		HashMap<Bigram, Double> bigram_model = new HashMap<>();
-		bigram_model.put(new Bigram(new Token(null, TokenType.START), new Token("The", TokenType.WORD)), 4.0);
-		bigram_model.put(new Bigram(new Token("The", TokenType.WORD), new Token("grey", TokenType.WORD)), 4.0);
-		bigram_model.put(new Bigram(new Token("The", TokenType.WORD), new Token("red", TokenType.WORD)), 2.0);
-		bigram_model.put(new Bigram(new Token("grey", TokenType.WORD), new Token("fox", TokenType.WORD)), 3.0);
-		bigram_model.put(new Bigram(new Token("grey", TokenType.WORD), new Token("deer", TokenType.WORD)), 1.0);
-		bigram_model.put(new Bigram(new Token("red", TokenType.WORD), new Token("fox", TokenType.WORD)), 1.0);
-		bigram_model.put(new Bigram(new Token("red", TokenType.WORD), new Token("deer", TokenType.WORD)), 1.0);
-		bigram_model.put(new Bigram(new Token("fox", TokenType.WORD), new Token("likes", TokenType.WORD)), 3.0);
-		bigram_model.put(new Bigram(new Token("fox", TokenType.WORD), new Token("hates", TokenType.WORD)), 1.0);
-		bigram_model.put(new Bigram(new Token("deer", TokenType.WORD), new Token("likes", TokenType.WORD)), 1.0);
-		bigram_model.put(new Bigram(new Token("deer", TokenType.WORD), new Token("hates", TokenType.WORD)), 1.0);
-		bigram_model.put(new Bigram(new Token("likes", TokenType.WORD), new Token("cats", TokenType.WORD)), 1.0);
-		bigram_model.put(new Bigram(new Token("likes", TokenType.WORD), new Token("Pokemon", TokenType.WORD)), 1.0);
-		bigram_model.put(new Bigram(new Token("likes", TokenType.WORD), new Token("cookies", TokenType.WORD)), 1.0);
-		bigram_model.put(new Bigram(new Token("likes", TokenType.WORD), new Token("DeadMau5", TokenType.WORD)), 1.0);
-		bigram_model.put(new Bigram(new Token("hates", TokenType.WORD), new Token("dogs", TokenType.WORD)), 1.0);
-		bigram_model.put(new Bigram(new Token("hates", TokenType.WORD), new Token("Muppets", TokenType.WORD)), 1.0);
-		bigram_model.put(new Bigram(new Token("cats", TokenType.WORD), new Token(".", TokenType.WORD)), 1.0);
-		bigram_model.put(new Bigram(new Token("Pokemon", TokenType.WORD), new Token(".", TokenType.WORD)), 1.0);
-		bigram_model.put(new Bigram(new Token("cookies", TokenType.WORD), new Token(".", TokenType.WORD)), 1.0);
-		bigram_model.put(new Bigram(new Token("DeadMau5", TokenType.WORD), new Token(".", TokenType.WORD)), 1.0);
-		bigram_model.put(new Bigram(new Token("dogs", TokenType.WORD), new Token(".", TokenType.WORD)), 1.0);
-		bigram_model.put(new Bigram(new Token("Muppets", TokenType.WORD), new Token(".", TokenType.WORD)), 1.0);
-		bigram_model.put(new Bigram(new Token(".", TokenType.WORD), new Token(null, TokenType.END)), 6.0);
+		// Test model
+		Parser parser = new Parser(null);
+		parser.processChunk("The grey fox likes cats. The grey fox hates dogs. The red fox likes Pokemon. "
+				+ "The grey deer likes cookies. The grey fox likes DeadMau5. The red deer hates Muppets.");
 
-		String sentence = Generator.randomBigramSentence(bigram_model);
+		String sentence = Generator.randomBigramSentence(parser.getTrie(), parser.getVocabulary());
 		System.out.println(sentence);
-		String sentence2 = Generator.randomUnigramSentence(unigram_model);
+		String sentence2 = Generator.randomUnigramSentence(parser.getUnigramSampler(), parser.getVocabulary());
 		System.out.println(sentence2);
+		String sentence3 = Generator.randomTrigramSentence(parser.getTrie(), parser.getVocabulary());
+		System.out.println(sentence3);
 		
-		
+		// Batch generation is reproducible from the seed
+		for(String s: Generator.randomBigramSentences(parser.getTrie(), parser.getVocabulary(), 3, 2, 42)) {
+			System.out.println(s);
+		}
 	}
 }
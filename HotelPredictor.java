@@ -1,50 +1,56 @@
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
 
+/*
+ * Usage: java HotelPredictor [--smoothing=good-turing|katz|kneser-ney] [--order=N] [--metrics=seconds] train test [model prefix]
+ * The defaults are Good-Turing bigrams. Model files only hold Good-Turing bigram models.
+ * --metrics prints the Metrics to stderr every so many seconds and once more at the end.
+ */
 public class HotelPredictor {
 
-	public static void main(String[] args) {
+	public static void main(String[] argv) {
 		
-		Parser trueReviewParser = new Parser(args[0]);
-		Parser falseReviewParser = new Parser(args[0]);
-		File trainFile = new File(args[0]);
-		File testFile = new File(args[1]);
-
+		Smoothing smoothing = Smoothing.GOOD_TURING;
+		int order = 2;
+		List<String> positional = new ArrayList<String>();
 		try{
-			String content = new String(Files.readAllBytes(Paths.get(trainFile.getAbsolutePath())));
-			String marked = content.replaceAll("1,[0-9],", "AJXXYTRUE ").replaceAll("0,[0-9],", "AJXXYFALSE ");
-			
-			String[] chunks = marked.split("AJXXY");
-			
-			//Parse true and false reviews.
-			for(int a = 0; a < chunks.length; a++) {
-				String[] words = chunks[a].split("\\s+");
-				if(words[0].equals("TRUE")) trueReviewParser.processChunk(chunks[a]);
-				else if(words[0].equals("FALSE")) falseReviewParser.processChunk(chunks[a]);
-				else System.out.println("No reading for a chunk.");
+			for(String arg: argv) {
+				if(arg.startsWith("--smoothing=")) {
+					smoothing = Smoothing.valueOf(arg.substring("--smoothing=".length()).toUpperCase().replace('-', '_'));
+				} else if(arg.startsWith("--order=")) {
+					order = Integer.parseInt(arg.substring("--order=".length()));
+				} else if(arg.startsWith("--metrics=")) {
+					Metrics.startReporting(Long.parseLong(arg.substring("--metrics=".length())), System.err);
+				} else {
+					positional.add(arg);
+				}
 			}
+			if(order < 1 || order > NgramCounts.MAX_ORDER) {
+				throw new IllegalArgumentException("N-gram order must be between 1 and " + NgramCounts.MAX_ORDER);
+			}
+		}
+		catch(IllegalArgumentException e) {
+			System.out.println("Bad option: " + e.getMessage());
+			return;
+		}
+		String[] args = positional.toArray(new String[0]);
+		
+		try{
+			//An optional model prefix reuses models saved by an earlier run.
+			String prefix = (args.length > 2) ? args[2] : null;
+			ScoringModel[] models = loadModels(args[0], prefix, smoothing, order);
 			
-			//Smooth the n-grams.
-			trueReviewParser.smoothUnigrams();
-			trueReviewParser.smoothBigrams();
-			falseReviewParser.smoothUnigrams();
-			falseReviewParser.smoothBigrams();
-			
-			
-			String testData = new String(Files.readAllBytes(Paths.get(testFile.getAbsolutePath())));
-			
-			String[] testChunks = testData.split("\\?,.*;\"");
-			
-			for(int a = 1; a < testChunks.length; a++) {
-				if(trueReviewParser.computeBigramPerplexity(testChunks[a]) < falseReviewParser.computeBigramPerplexity(testChunks[a])) {
-					System.out.println((a - 1) + ", 1");
-				}
-				else {
-					System.out.println((a - 1) + ", 0");
-				}
+			//Classify the test reviews on all cores.
+			int threads = Runtime.getRuntime().availableProcessors();
+			new ReviewClassifier(models[0], models[1], threads).classifyFile(args[1], System.out);
+			if(Metrics.isEnabled()) {
+				Metrics.stopReporting();
+				Metrics.dump(System.err);
 			}
 		}
 		catch(FileNotFoundException e) {
@@ -54,5 +60,106 @@ public class HotelPredictor {
 			System.out.println("IOException.");
 		}
 	}
+	
+	/*
+	 * Returns the true and false review models of the training file, or the models
+	 * saved under the prefix if there are any. Without saved models, or with models
+	 * that cannot be loaded (an older version, a truncated file), they are saved
+	 * under the prefix after training.
+	 */
+	static ScoringModel[] loadModels(String train, String prefix, Smoothing smoothing, int order) throws IOException {
+		ScoringModel trueModel = null;
+		ScoringModel falseModel = null;
+		if(prefix != null && (smoothing != Smoothing.GOOD_TURING || order != 2)) {
+			System.out.println("Model files only hold Good-Turing bigram models, ignoring the model prefix.");
+			prefix = null;
+		}
+		if(prefix != null && new File(prefix + ".true.ngm").exists() && new File(prefix + ".false.ngm").exists()) {
+			try {
+				trueModel = ModelFile.load(prefix + ".true.ngm");
+				falseModel = ModelFile.load(prefix + ".false.ngm");
+			} catch(IOException e) {
+				System.out.println("Retraining, cannot load the saved models: " + e.getMessage());
+				trueModel = null;
+			}
+		}
+		if(trueModel == null || falseModel == null) {
+			Parser trueReviewParser = new Parser(train, order);
+			Parser falseReviewParser = new Parser(train, order);
+			
+			//Parse true and false reviews as the training file streams in.
+			ReviewSplitter splitter = new ReviewSplitter(trueReviewParser, falseReviewParser);
+			new CorpusReader(train, "").readLines(splitter);
+			splitter.finish();
+			
+			//Smooth the n-grams.
+			trueReviewParser.smoothNgrams();
+			falseReviewParser.smoothNgrams();
+			trueReviewParser.compact();
+			falseReviewParser.compact();
+			
+			if(prefix != null) {
+				trueReviewParser.saveModel(prefix + ".true.ngm");
+				falseReviewParser.saveModel(prefix + ".false.ngm");
+			}
+			trueReviewParser.setSmoothing(smoothing);
+			falseReviewParser.setSmoothing(smoothing);
+			trueModel = trueReviewParser.getScoringModel(order);
+			falseModel = falseReviewParser.getScoringModel(order);
+		}
+		return new ScoringModel[] {trueModel, falseModel};
+	}
+	
+	/*
+	 * Cuts the training stream into labelled reviews and feeds each review
+	 * to the parser of its class, holding only one review in memory at a time.
+	 */
+	private static class ReviewSplitter implements Consumer<String> {
+		
+		private static final String MARKER = "AJXXY";
+		private static final Pattern TRUE_LABEL = Pattern.compile("1,[0-9],");
+		private static final Pattern FALSE_LABEL = Pattern.compile("0,[0-9],");
+		
+		private Parser trueReviewParser;
+		private Parser falseReviewParser;
+		private StringBuilder chunk = new StringBuilder();
+		
+		public ReviewSplitter(Parser t, Parser f) {
+			trueReviewParser = t;
+			falseReviewParser = f;
+		}
+		
+		public void accept(String line) {
+			String marked = TRUE_LABEL.matcher(line).replaceAll(MARKER + "TRUE ");
+			marked = FALSE_LABEL.matcher(marked).replaceAll(MARKER + "FALSE ");
+			
+			int start = 0;
+			for(int end = marked.indexOf(MARKER); end != -1; end = marked.indexOf(MARKER, start)) {
+				chunk.append(marked, start, end);
+				processReview(chunk.toString());
+				chunk.setLength(0);
+				start = end + MARKER.length();
+			}
+			chunk.append(marked, start, marked.length()).append('\n');
+		}
+		
+		public void finish() {
+			processReview(chunk.toString());
+			chunk.setLength(0);
+		}
+		
+		private void processReview(String review) {
+			String label = firstWord(review);
+			if(label.equals("TRUE")) trueReviewParser.processChunk(review);
+			else if(label.equals("FALSE")) falseReviewParser.processChunk(review);
+			else System.out.println("No reading for a chunk.");
+		}
+		
+		private static String firstWord(String s) {
+			int end = 0;
+			while(end < s.length() && !Character.isWhitespace(s.charAt(end))) end++;
+			return s.substring(0, end);
+		}
+	}
 
 }
@@ -0,0 +1,100 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Drives a ScoringServer with the reviews of a test file. Each client opens
+ * its own connection and sends one review at a time, waiting for the answer,
+ * so the number of clients is the number of requests in flight. Reports the
+ * throughput and the p50, p99 and largest request latency seen by clients.
+ * Reviews are cut from the file by ReviewClassifier.readReviews, so the server
+ * scores the same text as HotelPredictor. The line protocol has no way to send
+ * a review that spans several lines, so files with such reviews are refused.
+ */
+public class LoadGenerator {
+
+	public static void main(String[] args) throws Exception {
+		if(args.length < 1) {
+			System.out.println("Usage: java LoadGenerator <test> [clients] [requests per client] [port]");
+			return;
+		}
+		int clients = (args.length > 1) ? Integer.parseInt(args[1]) : 16;
+		int requests = (args.length > 2) ? Integer.parseInt(args[2]) : 1000;
+		int port = (args.length > 3) ? Integer.parseInt(args[3]) : ScoringServer.DEFAULT_PORT;
+
+		// Each review ends with the line break of its line, which does not change its sentences
+		List<String> lines = new ArrayList<>();
+		ReviewClassifier.readReviews(args[0], review -> lines.add(review.endsWith("\n") ? review.substring(0, review.length() - 1) : review));
+		for(int r = 0; r < lines.size(); r++) {
+			if(lines.get(r).indexOf('\n') != -1 || lines.get(r).indexOf('\r') != -1) {
+				System.out.println("Review " + r + " spans several lines, which the line protocol cannot send");
+				return;
+			}
+		}
+		final String[] reviews = lines.toArray(new String[0]);
+		if(reviews.length == 0) {
+			System.out.println("No reviews in " + args[0]);
+			return;
+		}
+
+		final long[][] latencies = new long[clients][requests];
+		final int[] truthful = new int[clients];
+		final int[] errors = new int[clients];
+		Thread[] threads = new Thread[clients];
+		long start = System.nanoTime();
+		for(int c = 0; c < clients; c++) {
+			final int client = c;
+			threads[c] = new Thread(() -> {
+				try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+						BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+						BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+					socket.setTcpNoDelay(true);
+					for(int r = 0; r < requests; r++) {
+						long sent = System.nanoTime();
+						out.write(reviews[(client * requests + r) % reviews.length]);
+						out.newLine();
+						out.flush();
+						String label = in.readLine();
+						latencies[client][r] = System.nanoTime() - sent;
+						if(label == null) {
+							throw new IOException("Connection closed");
+						} else if("1".equals(label)) {
+							truthful[client]++;
+						} else if(label.startsWith("error")) {
+							errors[client]++;
+						}
+					}
+				} catch (IOException e) {
+					throw new IllegalStateException("Client " + client + " lost the server", e);
+				}
+			});
+			threads[c].start();
+		}
+		for(Thread thread: threads) {
+			thread.join();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		long[] all = new long[clients * requests];
+		int labelled = 0;
+		int failed = 0;
+		for(int c = 0; c < clients; c++) {
+			System.arraycopy(latencies[c], 0, all, c * requests, requests);
+			labelled += truthful[c];
+			failed += errors[c];
+		}
+		Arrays.sort(all);
+		System.out.printf("%d requests from %d clients in %.2f s: %.0f reviews/s, %d labelled truthful, %d errors%n",
+				all.length, clients, seconds, all.length / seconds, labelled, failed);
+		System.out.printf("latency p50 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+				all[(int) (all.length * 0.5)] / 1e6, all[Math.min((int) (all.length * 0.99), all.length - 1)] / 1e6, all[all.length - 1] / 1e6);
+	}
+}
@@ -28,6 +28,7 @@ public class Main {
 		System.out.println("Corpus processed!");
 		System.out.println("Size of unigram HashMap is " + parser.getUnigrams().size());
 		System.out.println("Size of bigram HashMap is " + parser.getBigrams().size());
+		System.out.println("Size of trigram HashMap is " + parser.getTrigrams().size());
 		
 		//Testing smoothing
 		parser.smoothUnigrams();
@@ -36,6 +37,7 @@ public class Main {
 		System.out.println("Smoothed bigrams.");
 		parser.smoothTrigrams();
 		System.out.println("Smoothed trigrams.");
+		parser.compact();
 		
 		
 		// Display parser dump
@@ -45,7 +47,9 @@ public class Main {
 		// Generate random sentences
 		System.out.println("To see a random sentence generated based on the unigrams of the given corpus, enter 'u'.");
 		System.out.println("To see a random sentence generated based on the bigrams of the given corpus, enter 'b'.");
+		System.out.println("To see a random sentence generated based on the trigrams of the given corpus, enter 't'.");
 		System.out.println("To calculate unigram perplexity on a test corpus, enter 'pu'. For bigram perplexity, enter 'pb'.");
+		System.out.println("For trigram perplexity, enter 'pt'.");
 		System.out.println("To exit, enter 'x'.");
 		
 		boolean running = true;
@@ -54,10 +58,13 @@ public class Main {
 			
 			switch(input) {
 			case "u":
-				System.out.println(Generator.randomUnigramSentence(parser.getUnigrams()));
+				System.out.println(Generator.randomUnigramSentence(parser.getUnigramSampler(), parser.getVocabulary()));
 				break;
 			case "b":
-				System.out.println(Generator.randomBigramSentence(parser.getBigrams()));
+				System.out.println(Generator.randomBigramSentence(parser.getTrie(), parser.getVocabulary()));
+				break;
+			case "t":
+				System.out.println(Generator.randomTrigramSentence(parser.getTrie(), parser.getVocabulary()));
 				break;
 			case "pu":
 				System.out.println("Please enter the path to the desired test corpus");
@@ -67,6 +74,7 @@ public class Main {
 				parser.processCorpus(corpus_type, input);
 				break;
 			case "pb":
+			case "pt":
 				System.out.println("Please enter the path to the desired test corpus");
 				//input = inScanner.next();
 				parser.setFile("./HotelReviews/reviews.test");
@@ -0,0 +1,175 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/*
+ * Scoring model read directly from the model file layout (see ModelFile) in a
+ * memory-mapped file or a direct buffer. Nothing of the model is on the heap:
+ * words are looked up through a hash index in a direct buffer that points
+ * into the words of the layout, and bigram lookups binary search its sorted
+ * keys, so scoring creates no garbage and adds nothing for the collector to
+ * trace. The log10 terms are read from the layout rather than computed per
+ * token, so scores match the BigramModel the layout was written from.
+ */
+public class MappedModel implements ScoringModel {
+
+	private static final int EMPTY = -1;
+
+	private final ByteBuffer buffer;
+	private final ModelFile layout;
+	// Word ids by hash slot, -1 for empty slots
+	private final ByteBuffer slots;
+	private final int slotMask;
+	private final int vocabularySize;
+	private final int bigramCount;
+	private final int goodTuringK;
+
+	MappedModel(ByteBuffer buffer) {
+		this.buffer = buffer;
+		vocabularySize = buffer.getInt(8);
+		bigramCount = buffer.getInt(12);
+		goodTuringK = buffer.getInt(16);
+		layout = new ModelFile(vocabularySize, bigramCount);
+
+		// At most half full, like Vocabulary
+		int capacity = Integer.highestOneBit(Math.max(vocabularySize, 8) * 2 - 1) * 2;
+		slots = ByteBuffer.allocateDirect(4 * capacity).order(ByteOrder.nativeOrder());
+		slotMask = capacity - 1;
+		for(int slot = 0; slot < capacity; slot++) {
+			slots.putInt(4 * slot, EMPTY);
+		}
+		// The reserved ids have no words, but the empty word the Tokenizer emits is a word like any other
+		for(int id = Vocabulary.UNK + 1; id < vocabularySize; id++) {
+			int start = wordStart(id);
+			int end = wordStart(id + 1);
+			int h = 0;
+			for(int a = start; a < end; a++) {
+				h = 31 * h + wordChar(a);
+			}
+			int slot = Vocabulary.mix(h) & slotMask;
+			while(slots.getInt(4 * slot) != EMPTY) {
+				slot = (slot + 1) & slotMask;
+			}
+			slots.putInt(4 * slot, id);
+		}
+	}
+
+	public int scoringId(String text, int start, int end) {
+		int id = id(text, start, end);
+		return (id == -1 || unigramCount(id) < 0) ? Vocabulary.UNK : id;
+	}
+
+	/*
+	 * Returns the word id of text[start, end), or -1 if it is not in the vocabulary
+	 */
+	public int id(String text, int start, int end) {
+		int length = end - start;
+		for(int slot = Vocabulary.hash(text, start, end) & slotMask; ; slot = (slot + 1) & slotMask) {
+			int id = slots.getInt(4 * slot);
+			if(id == EMPTY) {
+				return -1;
+			}
+			int wordStart = wordStart(id);
+			if(wordStart(id + 1) - wordStart == length && matches(wordStart, text, start, length)) {
+				return id;
+			}
+		}
+	}
+
+	/*
+	 * Returns the word of a word id as a new string, or null for the reserved ids
+	 */
+	public String word(int id) {
+		if(id <= Vocabulary.UNK) {
+			return null;
+		}
+		int start = wordStart(id);
+		int end = wordStart(id + 1);
+		char[] chars = new char[end - start];
+		for(int a = start; a < end; a++) {
+			chars[a - start] = wordChar(a);
+		}
+		return new String(chars);
+	}
+
+	private boolean matches(int wordStart, String text, int start, int length) {
+		for(int a = 0; a < length; a++) {
+			if(wordChar(wordStart + a) != text.charAt(start + a)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int wordStart(int id) {
+		return buffer.getInt((int) layout.wordOffsets + 4 * id);
+	}
+
+	private char wordChar(int index) {
+		return buffer.getChar((int) layout.words + 2 * index);
+	}
+
+	public double term(int prev_word, int t) {
+		if(prev_word == -1) {
+			return buffer.getDouble((int) layout.firstTerms + 8 * t);
+		}
+		if(t != Vocabulary.UNK && prev_word != Vocabulary.UNK) {
+			int seen = findBigram(NgramKey.pack(prev_word, t));
+			if(seen != -1) {
+				return buffer.getDouble((int) layout.bigramTerms + 8 * seen);
+			}
+		}
+		return buffer.getDouble((int) layout.unseenTerms + 8 * prev_word);
+	}
+
+	public int getVocabularySize() {
+		return vocabularySize;
+	}
+
+	public int getBigramCount() {
+		return bigramCount;
+	}
+
+	public int getGoodTuringK() {
+		return goodTuringK;
+	}
+
+	public int unigramCount(int word) {
+		return buffer.getInt((int) layout.unigramCounts + 4 * word);
+	}
+
+	public double gtUnigram(int word) {
+		return buffer.getDouble((int) layout.gtUnigrams + 8 * word);
+	}
+
+	/*
+	 * Returns the index of the bigram in the sorted key section, or -1
+	 */
+	public int findBigram(long key) {
+		int low = 0;
+		int high = bigramCount - 1;
+		while(low <= high) {
+			int mid = (low + high) >>> 1;
+			long probe = bigramKey(mid);
+			if(probe < key) {
+				low = mid + 1;
+			} else if(probe > key) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	public long bigramKey(int index) {
+		return buffer.getLong((int) layout.bigramKeys + 8 * index);
+	}
+
+	public int bigramCount(int index) {
+		return buffer.getInt((int) layout.bigramCounts + 4 * index);
+	}
+
+	public double gtBigram(int index) {
+		return buffer.getDouble((int) layout.gtBigrams + 8 * index);
+	}
+}
@@ -0,0 +1,209 @@
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Counters, histograms and timers for the hot paths, by name. Recording is
+ * off until setEnabled(true) and then costs a few LongAdder updates, which
+ * stay cheap when several threads record into the same metric. Histograms
+ * bucket values by powers of two, so percentiles are upper bounds within a
+ * factor of two. dump prints every metric and startReporting does so
+ * periodically.
+ */
+public final class Metrics {
+
+	private static volatile boolean enabled = false;
+	private static final Map<String, Object> metrics = new ConcurrentHashMap<>();
+	private static ScheduledExecutorService reporter = null;
+
+	private Metrics() {
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	public static void setEnabled(boolean enabled) {
+		Metrics.enabled = enabled;
+	}
+
+	public static Counter counter(String name) {
+		return (Counter) metrics.computeIfAbsent(name, key -> new Counter());
+	}
+
+	public static Histogram histogram(String name) {
+		return (Histogram) metrics.computeIfAbsent(name, key -> new Histogram());
+	}
+
+	public static Timer timer(String name) {
+		return (Timer) metrics.computeIfAbsent(name, key -> new Timer());
+	}
+
+	/*
+	 * Prints one line per metric that recorded anything, sorted by name
+	 */
+	public static void dump(PrintStream out) {
+		for(Map.Entry<String, Object> entry: new TreeMap<>(metrics).entrySet()) {
+			String line = entry.getValue().toString();
+			if(!line.isEmpty()) {
+				out.println(entry.getKey() + " " + line);
+			}
+		}
+	}
+
+	/*
+	 * Enables recording and dumps the metrics every period seconds on a daemon thread
+	 */
+	public static synchronized void startReporting(long period, PrintStream out) {
+		stopReporting();
+		setEnabled(true);
+		reporter = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "metrics");
+			thread.setDaemon(true);
+			return thread;
+		});
+		reporter.scheduleAtFixedRate(() -> {
+			out.println("--- metrics ---");
+			dump(out);
+		}, period, period, TimeUnit.SECONDS);
+	}
+
+	public static synchronized void stopReporting() {
+		if(reporter != null) {
+			reporter.shutdownNow();
+			reporter = null;
+		}
+	}
+
+	public static class Counter {
+
+		private final LongAdder value = new LongAdder();
+
+		public void add(long n) {
+			if(enabled) {
+				value.add(n);
+			}
+		}
+
+		public void increment() {
+			add(1);
+		}
+
+		public long get() {
+			return value.sum();
+		}
+
+		public String toString() {
+			long sum = get();
+			return (sum == 0) ? "" : Long.toString(sum);
+		}
+	}
+
+	public static class Histogram {
+
+		// Bucket b holds the values below 2^b that are not in a lower bucket
+		private final LongAdder[] buckets = new LongAdder[64];
+		private final LongAdder sum = new LongAdder();
+		private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+		Histogram() {
+			for(int b = 0; b < buckets.length; b++) {
+				buckets[b] = new LongAdder();
+			}
+		}
+
+		/*
+		 * Records a value of 0 or more
+		 */
+		public void record(long value) {
+			if(enabled) {
+				buckets[64 - Long.numberOfLeadingZeros(value)].increment();
+				sum.add(value);
+				max.accumulate(value);
+			}
+		}
+
+		public long count() {
+			long count = 0;
+			for(LongAdder bucket: buckets) {
+				count += bucket.sum();
+			}
+			return count;
+		}
+
+		public double mean() {
+			long count = count();
+			return (count == 0) ? 0 : (double) sum.sum() / count;
+		}
+
+		public long max() {
+			return max.get();
+		}
+
+		/*
+		 * Upper bound of the q quantile, for q from 0 to 1
+		 */
+		public long percentile(double q) {
+			long[] counts = new long[buckets.length];
+			long count = 0;
+			for(int b = 0; b < buckets.length; b++) {
+				counts[b] = buckets[b].sum();
+				count += counts[b];
+			}
+			long rank = (long) Math.ceil(q * count);
+			long seen = 0;
+			for(int b = 0; b < counts.length; b++) {
+				seen += counts[b];
+				if(seen >= rank && counts[b] > 0) {
+					return Math.min((b == 0) ? 0 : (1L << b) - 1, max());
+				}
+			}
+			return max();
+		}
+
+		public String toString() {
+			long count = count();
+			if(count == 0) {
+				return "";
+			}
+			return String.format("count=%d mean=%.1f p50<=%d p99<=%d max=%d",
+					count, mean(), percentile(0.5), percentile(0.99), max());
+		}
+	}
+
+	/*
+	 * Histogram of durations in nanoseconds, printed in microseconds
+	 */
+	public static class Timer extends Histogram {
+
+		private static final long OFF = Long.MIN_VALUE;
+
+		/*
+		 * Returns the start time to pass to stop, or a marker if recording is off
+		 */
+		public long start() {
+			return enabled ? System.nanoTime() : OFF;
+		}
+
+		public void stop(long start) {
+			if(start != OFF) {
+				record(Math.max(System.nanoTime() - start, 0));
+			}
+		}
+
+		public String toString() {
+			long count = count();
+			if(count == 0) {
+				return "";
+			}
+			return String.format("count=%d total=%.1fms mean=%.1fus p50<=%.1fus p99<=%.1fus max=%.1fus",
+					count, mean() * count / 1e6, mean() / 1e3, percentile(0.5) / 1e3, percentile(0.99) / 1e3, max() / 1e3);
+		}
+	}
+}
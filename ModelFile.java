@@ -0,0 +1,309 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * Binary file format for a smoothed bigram model. All numbers are little-endian
+ * and every section starts on an 8-byte boundary:
+ *
+ *   header        magic, version, vocabulary size V, bigram count E,
+ *                 Good-Turing k, unused int, smoothed unigram total,
+ *                 unseen bigram count
+ *   long[E]       bigram keys (NgramKey.pack), sorted
+ *   int[E]        raw bigram counts
+ *   double[E]     smoothed bigram counts
+ *   double[E]     log10 terms of the bigrams, as BigramModel scores them
+ *   int[V]        raw unigram counts by word id, -1 for ids without a unigram
+ *   double[V]     smoothed unigram counts by word id
+ *   double[V]     log10 terms of words starting a sentence, 0 without a unigram
+ *   double[V]     log10 terms of unseen bigrams by context word, 0 without a unigram
+ *   int[V + 1]    offsets of the words in the character section
+ *   char[]        the words, reserved ids have empty words
+ *
+ * The file is loaded by mapping it into memory, so loading does not depend on
+ * the number of bigrams and several processes share one copy in the page cache.
+ * The same layout can be built in a direct buffer, keeping a model off the heap
+ * without a file.
+ * Version 1 files held the unigram total as an int, truncated while summing,
+ * and version 2 files had no log10 terms.
+ */
+public class ModelFile {
+
+	static final int MAGIC = 0x4E474D31; // "NGM1"
+	static final int VERSION = 3;
+	static final int HEADER = 40;
+
+	private static final int WRITE_BUFFER = 1 << 16;
+
+	// Section offsets of a file with the given sizes
+	final long bigramKeys;
+	final long bigramCounts;
+	final long gtBigrams;
+	final long bigramTerms;
+	final long unigramCounts;
+	final long gtUnigrams;
+	final long firstTerms;
+	final long unseenTerms;
+	final long wordOffsets;
+	final long words;
+
+	ModelFile(int vocabularySize, int bigramCount) {
+		bigramKeys = HEADER;
+		bigramCounts = bigramKeys + 8L * bigramCount;
+		gtBigrams = align(bigramCounts + 4L * bigramCount);
+		bigramTerms = gtBigrams + 8L * bigramCount;
+		unigramCounts = bigramTerms + 8L * bigramCount;
+		gtUnigrams = align(unigramCounts + 4L * vocabularySize);
+		firstTerms = gtUnigrams + 8L * vocabularySize;
+		unseenTerms = firstTerms + 8L * vocabularySize;
+		wordOffsets = unseenTerms + 8L * vocabularySize;
+		words = align(wordOffsets + 4L * (vocabularySize + 1));
+	}
+
+	/*
+	 * Writes a smoothed model. gtunigrams and gtbigrams view the same trie, whose
+	 * level 2 is already in key order.
+	 */
+	static void write(String path, Vocabulary vocabulary, SmoothedCounts gtunigrams, double unigramSum,
+			SmoothedCounts gtbigrams, double unseenCount, int goodTuringK) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			write(channel, vocabulary, gtunigrams, unigramSum, gtbigrams, unseenCount, goodTuringK);
+		}
+	}
+
+	/*
+	 * Builds a smoothed model in a direct buffer and returns the model reading from it
+	 */
+	static MappedModel toDirectBuffer(Vocabulary vocabulary, SmoothedCounts gtunigrams, double unigramSum,
+			SmoothedCounts gtbigrams, double unseenCount, int goodTuringK) throws IOException {
+		long chars = 0;
+		for(int id = 0; id < vocabulary.size(); id++) {
+			chars += (vocabulary.word(id) == null) ? 0 : vocabulary.word(id).length();
+		}
+		long size = new ModelFile(vocabulary.size(), gtbigrams.size()).words + 2 * chars;
+		if(size > Integer.MAX_VALUE) {
+			throw new IOException("Model is larger than 2GB");
+		}
+		final ByteBuffer target = ByteBuffer.allocateDirect((int) size).order(ByteOrder.LITTLE_ENDIAN);
+		write(new WritableByteChannel() {
+			public int write(ByteBuffer src) {
+				int written = src.remaining();
+				target.put(src);
+				return written;
+			}
+			public boolean isOpen() {
+				return true;
+			}
+			public void close() {
+			}
+		}, vocabulary, gtunigrams, unigramSum, gtbigrams, unseenCount, goodTuringK);
+		target.clear();
+		return new MappedModel(target);
+	}
+
+	private static void write(WritableByteChannel channel, Vocabulary vocabulary, SmoothedCounts gtunigrams,
+			double unigramSum, SmoothedCounts gtbigrams, double unseenCount, int goodTuringK) throws IOException {
+		NgramTrie trie = gtbigrams.getTrie();
+		int vocabularySize = vocabulary.size();
+		int bigramCount = trie.size(2);
+		int contexts = Math.min(vocabularySize, trie.size(1));
+		ModelFile layout = new ModelFile(vocabularySize, bigramCount);
+
+		// The terms are computed exactly as BigramModel computes them, so both score alike
+		int[] unigramCount = new int[vocabularySize];
+		double[] gtUnigram = new double[vocabularySize];
+		double[] firstTerm = new double[vocabularySize];
+		double[] unseenTerm = new double[vocabularySize];
+		java.util.Arrays.fill(unigramCount, -1);
+		for(int word = 0; word < contexts; word++) {
+			if(trie.find(1, -1, word) == -1) {
+				continue;
+			}
+			double gt = gtunigrams.get(word);
+			unigramCount[word] = trie.count(1, word);
+			gtUnigram[word] = gt;
+			firstTerm[word] = Math.log10(gt/unigramSum);
+			unseenTerm[word] = Math.log10(1/(unseenCount/gt));
+		}
+
+		Writer out = new Writer(channel);
+		out.putInt(MAGIC);
+		out.putInt(VERSION);
+		out.putInt(vocabularySize);
+		out.putInt(bigramCount);
+		out.putInt(goodTuringK);
+		out.putInt(0);
+		out.putDouble(unigramSum);
+		out.putDouble(unseenCount);
+
+		for(int prev = 0; prev < contexts; prev++) {
+			for(int node = trie.continuationStart(1, prev); node < trie.continuationEnd(1, prev); node++) {
+				out.putLong(NgramKey.pack(prev, trie.word(2, node)));
+			}
+		}
+		for(int node = 0; node < bigramCount; node++) {
+			out.putInt(trie.count(2, node));
+		}
+		out.pad(layout.gtBigrams);
+		for(int node = 0; node < bigramCount; node++) {
+			out.putDouble(gtbigrams.get(node));
+		}
+		for(int prev = 0; prev < contexts; prev++) {
+			for(int node = trie.continuationStart(1, prev); node < trie.continuationEnd(1, prev); node++) {
+				out.putDouble(Math.log10(1/(gtbigrams.get(node)/gtUnigram[prev])));
+			}
+		}
+		for(int count: unigramCount) {
+			out.putInt(count);
+		}
+		out.pad(layout.gtUnigrams);
+		for(double gt: gtUnigram) {
+			out.putDouble(gt);
+		}
+		for(double term: firstTerm) {
+			out.putDouble(term);
+		}
+		for(double term: unseenTerm) {
+			out.putDouble(term);
+		}
+		int offset = 0;
+		for(int id = 0; id < vocabularySize; id++) {
+			out.putInt(offset);
+			offset += (vocabulary.word(id) == null) ? 0 : vocabulary.word(id).length();
+		}
+		out.putInt(offset);
+		out.pad(layout.words);
+		for(int id = 0; id < vocabularySize; id++) {
+			String word = vocabulary.word(id);
+			if(word != null) {
+				for(int a = 0; a < word.length(); a++) {
+					out.putChar(word.charAt(a));
+				}
+			}
+		}
+		out.flush();
+	}
+
+	/*
+	 * Maps a model file into memory. Throws an IOException if the file is not a
+	 * model file of this version or is shorter than its header says.
+	 */
+	public static MappedModel load(String path) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+			if(channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Model file is larger than 2GB: " + path);
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			if(channel.size() < HEADER || buffer.getInt(0) != MAGIC) {
+				throw new IOException("Not a model file: " + path);
+			}
+			if(buffer.getInt(4) != VERSION) {
+				throw new IOException("Unsupported model file version " + buffer.getInt(4) + ": " + path);
+			}
+			validate(buffer, channel.size(), path);
+			return new MappedModel(buffer);
+		}
+	}
+
+	/*
+	 * Checks that every section the header implies lies inside the file and
+	 * that the word offsets only grow, so a truncated file is never read past its end
+	 */
+	private static void validate(ByteBuffer buffer, long size, String path) throws IOException {
+		int vocabularySize = buffer.getInt(8);
+		int bigramCount = buffer.getInt(12);
+		if(vocabularySize < 0 || bigramCount < 0) {
+			throw new IOException("Corrupt model file header: " + path);
+		}
+		ModelFile layout = new ModelFile(vocabularySize, bigramCount);
+		if(size < layout.words) {
+			throw new IOException("Truncated model file, " + size + " of at least " + layout.words + " bytes: " + path);
+		}
+		int previous = 0;
+		for(int id = 0; id <= vocabularySize; id++) {
+			int offset = buffer.getInt((int) layout.wordOffsets + 4 * id);
+			if(offset < previous || (id == 0 && offset != 0)) {
+				throw new IOException("Corrupt word offsets in model file: " + path);
+			}
+			previous = offset;
+		}
+		if(size < layout.words + 2L * previous) {
+			throw new IOException("Truncated model file, " + size + " of " + (layout.words + 2L * previous)
+					+ " bytes: " + path);
+		}
+	}
+
+	private static long align(long offset) {
+		return (offset + 7) & ~7L;
+	}
+
+	/*
+	 * Buffered little-endian writer over a channel
+	 */
+	private static class Writer {
+
+		private WritableByteChannel channel;
+		private ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+		private long position = 0;
+
+		Writer(WritableByteChannel channel) {
+			this.channel = channel;
+		}
+
+		void putInt(int value) throws IOException {
+			ensure(4);
+			buffer.putInt(value);
+			position += 4;
+		}
+
+		void putLong(long value) throws IOException {
+			ensure(8);
+			buffer.putLong(value);
+			position += 8;
+		}
+
+		void putDouble(double value) throws IOException {
+			ensure(8);
+			buffer.putDouble(value);
+			position += 8;
+		}
+
+		void putChar(char value) throws IOException {
+			ensure(2);
+			buffer.putChar(value);
+			position += 2;
+		}
+
+		/*
+		 * Writes zeros up to the given offset
+		 */
+		void pad(long offset) throws IOException {
+			while(position < offset) {
+				ensure(1);
+				buffer.put((byte) 0);
+				position++;
+			}
+		}
+
+		void flush() throws IOException {
+			buffer.flip();
+			while(buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+
+		private void ensure(int bytes) throws IOException {
+			if(buffer.remaining() < bytes) {
+				flush();
+			}
+		}
+	}
+}
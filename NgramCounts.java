@@ -0,0 +1,121 @@
+/*
+ * Counts of every n-gram order up to MAX_ORDER, one NgramTable per order.
+ * Unigrams are keyed by word id and higher orders by chained NgramKeys, so
+ * the context id of a unigram is its word id and that of a longer n-gram
+ * is its id in its own table. Sentences are padded with START and END and
+ * every window of each order is counted, which for orders 1 to 3 are the
+ * unigrams, bigrams and trigrams the Parser always counted.
+ */
+public class NgramCounts {
+
+	public static final int MAX_ORDER = 5;
+
+	// Indexed by order, entry 0 is unused
+	private final NgramTable[] tables = new NgramTable[MAX_ORDER + 1];
+	// Context ids of the n-grams ending at the previous word, by order
+	private final int[] context = new int[MAX_ORDER + 1];
+
+	public NgramCounts() {
+		for(int n = 1; n <= MAX_ORDER; n++) {
+			tables[n] = new NgramTable();
+		}
+	}
+
+	public NgramTable table(int n) {
+		return tables[n];
+	}
+
+	/*
+	 * Counts the n-grams of orders lowest to highest in the sentence ids[0, size).
+	 * The prefixes of counted n-grams are added to the lower orders with a zero
+	 * count when those orders are not counted themselves, so the keys can chain.
+	 */
+	public void count(int[] ids, int size, int lowest, int highest) {
+		for(int a = -1; a <= size; a++) {
+			int word = (a == -1) ? Vocabulary.START : (a == size) ? Vocabulary.END : ids[a];
+
+			// Highest order first, so context[n - 1] still ends at the previous word
+			for(int n = Math.min(highest, a + 2); n >= 2; n--) {
+				context[n] = tables[n].add(NgramKey.pack(context[n - 1], word), (n >= lowest) ? 1 : 0);
+			}
+			if(lowest <= 1) {
+				tables[1].increment(word);
+			}
+			context[1] = word;
+		}
+	}
+
+	/*
+	 * Adds count to the n-gram words[0, n) and returns its id. Missing prefixes are added with a zero count.
+	 */
+	public int add(int[] words, int n, int count) {
+		if(n == 1) {
+			return tables[1].add(words[0], count);
+		}
+		int context = words[0];
+		for(int order = 2; order < n; order++) {
+			context = tables[order].add(NgramKey.pack(context, words[order - 1]), 0);
+		}
+		return tables[n].add(NgramKey.pack(context, words[n - 1]), count);
+	}
+
+	/*
+	 * Bytes held by the tables of every order
+	 */
+	public long memoryBytes() {
+		long bytes = 0;
+		for(int n = 1; n <= MAX_ORDER; n++) {
+			bytes += tables[n].memoryBytes();
+		}
+		return bytes;
+	}
+
+	/*
+	 * Returns the context id of the n-gram made of the given context and word, or -1 if it is not counted
+	 */
+	public int find(int n, int context, int word) {
+		if(n == 1) {
+			return tables[1].contains(word) ? word : -1;
+		}
+		return tables[n].find(NgramKey.pack(context, word));
+	}
+
+	/*
+	 * Writes the n words of the n-gram with the given table id to words[0, n)
+	 */
+	public void words(int n, int id, int[] words) {
+		if(n == 1) {
+			words[0] = (int) tables[1].key(id);
+			return;
+		}
+		for(int order = n; order >= 2; order--) {
+			long key = tables[order].key(id);
+			words[order - 1] = NgramKey.word(key);
+			id = NgramKey.context(key);
+		}
+		words[0] = id;
+	}
+
+	/*
+	 * Adds the counts of another instance. remap maps its word ids to ours.
+	 */
+	public void merge(NgramCounts other, int[] remap) {
+		NgramTable unigrams = other.table(1);
+		for(int id = 0; id < unigrams.size(); id++) {
+			tables[1].add(remap[(int) unigrams.key(id)], unigrams.count(id));
+		}
+
+		// The context ids of each order are remapped by merging the order below first
+		int[] contexts = remap;
+		for(int n = 2; n <= MAX_ORDER; n++) {
+			NgramTable from = other.table(n);
+			int[] merged = new int[from.size()];
+			for(int id = 0; id < from.size(); id++) {
+				long key = from.key(id);
+				merged[id] = tables[n].add(NgramKey.pack(contexts[NgramKey.context(key)], remap[NgramKey.word(key)]),
+						from.count(id));
+			}
+			contexts = merged;
+		}
+	}
+}
@@ -0,0 +1,36 @@
+/*
+ * Packs an n-gram into a single long of two 32-bit ids.
+ * A bigram is pack(first word, second word). Higher orders are chained:
+ * an n-gram is pack(id of its first n - 1 words in the (n - 1)-gram table, last word),
+ * so every order costs one long per entry however long the n-grams get.
+ */
+public final class NgramKey {
+
+	private NgramKey() {
+	}
+
+	public static long pack(int context, int word) {
+		return ((long) context << 32) | (word & 0xFFFFFFFFL);
+	}
+
+	/*
+	 * Returns word i (0 or 1) of a packed bigram
+	 */
+	public static int bigramWord(long key, int i) {
+		return i == 0 ? (int) (key >>> 32) : (int) key;
+	}
+
+	/*
+	 * Returns the context id of a chained key
+	 */
+	public static int context(long key) {
+		return (int) (key >>> 32);
+	}
+
+	/*
+	 * Returns the last word of a chained key
+	 */
+	public static int word(long key) {
+		return (int) key;
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Immutable scoring view of a Good-Turing smoothed model of any order up to NgramCounts.MAX_ORDER.
+ * A token is scored against the longest context of at most order - 1 words
+ * that was seen in training: P(t | context) = c*(context, t) / c*(context).
+ * If (context, t) was not seen the context is shortened from the front until it
+ * was, backing off down to the bigram, where the unseen bigram count takes over.
+ * With order 2 this is the bigram model and with order 1 the unigram model.
+ * Every term is a log10 precomputed by word id or trie entry when the model is
+ * built, so scoring a token only searches the trie and reads arrays.
+ */
+public class NgramModel extends ContextModel {
+
+	// Indexed by word id
+	private final double[] firstTerms;
+	private final double[] unigramTerms;
+	// Term of an unseen bigram after the word, by word id
+	private final double[] unseenTerms;
+	// Term of each n-gram after its prefix, by order and then by trie entry
+	private final double[][] seenTerms;
+
+	/*
+	 * Builds the model from the smoothed counts of each order, views of the given trie
+	 */
+	NgramModel(Vocabulary vocabulary, NgramTrie trie, SmoothedCounts[] smoothed, double[] unseen,
+			double unigramSum, int order) {
+		super(vocabulary, trie, order);
+
+		int words = trie.size(1);
+		firstTerms = new double[words];
+		unigramTerms = new double[words];
+		unseenTerms = new double[words];
+		double[] wordCounts = new double[words];
+		for(int word = 0; word < words; word++) {
+			if(!known[word]) {
+				continue;
+			}
+			double gt = smoothed[1].get(word);
+			wordCounts[word] = gt;
+			firstTerms[word] = Math.log10(gt/unigramSum);
+			unigramTerms[word] = Math.log10(1/(gt/unigramSum));
+			if(order > 1) {
+				unseenTerms[word] = Math.log10(1/(unseen[2]/gt));
+			}
+		}
+
+		seenTerms = new double[order + 1][];
+		for(int n = 2; n <= order; n++) {
+			seenTerms[n] = new double[trie.size(n)];
+			for(int prefix = 0; prefix < trie.size(n - 1); prefix++) {
+				double prefixCount = (n == 2) ? wordCounts[prefix] : smoothed[n - 1].get(prefix);
+				for(int node = trie.continuationStart(n - 1, prefix); node < trie.continuationEnd(n - 1, prefix); node++) {
+					seenTerms[n][node] = Math.log10(1/(smoothed[n].get(node)/prefixCount));
+				}
+			}
+		}
+	}
+
+	public double term(int state, int t) {
+		if(order == 1) {
+			return unigramTerms[t];
+		}
+		if(state == -1) {
+			return firstTerms[t];
+		}
+
+		// Back off to shorter contexts until (context, t) was seen or the context is one word
+		while(true) {
+			int length = length(state);
+			int context = context(state);
+			if(length == 0) {
+				return unigramTerms[t];
+			}
+			int seen = find(length + 1, context, t);
+			if(seen != -1) {
+				return seenTerms[length + 1][seen];
+			}
+			if(length == 1) {
+				return unseenTerms[context];
+			}
+			state = suffix(length, context);
+		}
+	}
+}
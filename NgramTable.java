@@ -0,0 +1,197 @@
+import java.util.Arrays;
+
+/*
+ * Open-addressing count table keyed by packed n-gram ids (see NgramKey).
+ * Entries get dense ids in insertion order, and keys and counts are kept in
+ * primitive arrays indexed by that id. An entry costs 12 bytes plus its
+ * share of the slot array, around 20 bytes in all, and nothing is boxed.
+ */
+public class NgramTable {
+
+	private static final int EMPTY = -1;
+	private static final long MIX = 0x9E3779B97F4A7C15L;
+
+	private long[] keys;
+	private int[] counts;
+	private int[] slots;
+	private int shift;
+	private int size;
+
+	// Once tracking is on, N_c for the counts 0 to countOfCounts.length - 1
+	private int[] countOfCounts = null;
+
+	public NgramTable() {
+		this(16);
+	}
+
+	public NgramTable(int expected) {
+		expected = Math.max(expected, 8);
+		int capacity = Integer.highestOneBit(expected * 2 - 1) * 2;
+		keys = new long[expected];
+		counts = new int[expected];
+		slots = new int[capacity];
+		Arrays.fill(slots, EMPTY);
+		shift = 64 - Integer.numberOfTrailingZeros(capacity);
+	}
+
+	/*
+	 * Adds one to the count of the key and returns its id
+	 */
+	public int increment(long key) {
+		return add(key, 1);
+	}
+
+	/*
+	 * Adds delta to the count of the key, inserting it if needed, and returns its id
+	 */
+	public int add(long key, int delta) {
+		int slot = findSlot(key);
+		int id = slots[slot];
+		int before = (id == EMPTY) ? EMPTY : counts[id];
+		if(id == EMPTY) {
+			id = insert(slot, key);
+		}
+		counts[id] += delta;
+		if(countOfCounts != null) {
+			counted(id, before);
+		}
+		return id;
+	}
+
+	/*
+	 * Sets the count of the key, inserting it if needed, and returns its id
+	 */
+	public int put(long key, int count) {
+		int slot = findSlot(key);
+		int id = slots[slot];
+		int before = (id == EMPTY) ? EMPTY : counts[id];
+		if(id == EMPTY) {
+			id = insert(slot, key);
+		}
+		counts[id] = count;
+		if(countOfCounts != null) {
+			counted(id, before);
+		}
+		return id;
+	}
+
+	/*
+	 * Returns the id of the key, or -1 if it is not in the table
+	 */
+	public int find(long key) {
+		return slots[findSlot(key)];
+	}
+
+	public boolean contains(long key) {
+		return find(key) != EMPTY;
+	}
+
+	/*
+	 * Returns the count of the key, or 0 if it is not in the table
+	 */
+	public int get(long key) {
+		int id = find(key);
+		return (id == EMPTY) ? 0 : counts[id];
+	}
+
+	public int count(int id) {
+		return counts[id];
+	}
+
+	public long key(int id) {
+		return keys[id];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/*
+	 * Bytes held by the key, count and slot arrays
+	 */
+	public long memoryBytes() {
+		return 8L * keys.length + 4L * counts.length + 4L * slots.length;
+	}
+
+	/*
+	 * Starts keeping N_c for the counts 0 to max up to date on every add and put,
+	 * so it needs no pass over the table. A negative max stops it.
+	 */
+	public void trackCounts(int max) {
+		countOfCounts = (max < 0) ? null : scanCountOfCounts(max);
+	}
+
+	/*
+	 * Returns N_c, the number of entries with count c, for c from 0 to max
+	 */
+	public int[] countOfCounts(int max) {
+		if(countOfCounts != null && max < countOfCounts.length) {
+			return Arrays.copyOf(countOfCounts, max + 1);
+		}
+		return scanCountOfCounts(max);
+	}
+
+	private int[] scanCountOfCounts(int max) {
+		int[] histogram = new int[max + 1];
+		for(int id = 0; id < size; id++) {
+			int c = counts[id];
+			if(c >= 0 && c <= max) {
+				histogram[c]++;
+			}
+		}
+		return histogram;
+	}
+
+	/*
+	 * Moves an entry between the N_c it was counted in before and after a change
+	 */
+	private void counted(int id, int before) {
+		int after = counts[id];
+		if(before >= 0 && before < countOfCounts.length) {
+			countOfCounts[before]--;
+		}
+		if(after >= 0 && after < countOfCounts.length) {
+			countOfCounts[after]++;
+		}
+	}
+
+	private int findSlot(long key) {
+		int mask = slots.length - 1;
+		for(int slot = (int) ((key * MIX) >>> shift); ; slot = (slot + 1) & mask) {
+			int id = slots[slot];
+			if(id == EMPTY || keys[id] == key) {
+				return slot;
+			}
+		}
+	}
+
+	private int insert(int slot, long key) {
+		int id = size++;
+		if(id == keys.length) {
+			keys = Arrays.copyOf(keys, id * 2);
+			counts = Arrays.copyOf(counts, id * 2);
+		}
+		keys[id] = key;
+		slots[slot] = id;
+
+		// Keep the slots at most three quarters full
+		if(size * 4 > slots.length * 3) {
+			rehash(slots.length * 2);
+		}
+		return id;
+	}
+
+	private void rehash(int capacity) {
+		slots = new int[capacity];
+		Arrays.fill(slots, EMPTY);
+		shift = 64 - Integer.numberOfTrailingZeros(capacity);
+		int mask = capacity - 1;
+		for(int id = 0; id < size; id++) {
+			int slot = (int) ((keys[id] * MIX) >>> shift);
+			while(slots[slot] != EMPTY) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = id;
+		}
+	}
+}
@@ -0,0 +1,252 @@
+import java.util.Arrays;
+
+/*
+ * Read-only n-gram counts in the sorted array layout of ARPA-style language model
+ * toolkits. Level 1 is indexed by word id. The entries of each higher level are
+ * sorted by prefix and then by last word, so the continuations of an n-gram are
+ * one contiguous range of the next level, reached through its offset and searched
+ * by binary search. An entry costs 16 bytes: its last word, the running count
+ * total of its level and the offset of its continuations. Nothing is hashed.
+ *
+ * The entry of an n-gram is its context id in the trie: SmoothedCounts, the
+ * scoring models and the model file read n-grams by entry, and Generator samples
+ * continuations from it. Once it is built Parser.compact can drop the NgramCounts
+ * hash tables it was built from.
+ */
+public class NgramTrie {
+
+	private final int order;
+	// Words with a unigram entry, which may have a zero count
+	private final boolean[] counted;
+	// Indexed by level, entry 0 is unused
+	private final int[][] words;
+	private final long[][] cumulative;
+	// The continuations of entry i of level n are [offsets[n][i], offsets[n][i + 1]) of level n + 1
+	private final int[][] offsets;
+
+	/*
+	 * Builds the trie of orders 1 to order from the counts
+	 */
+	public NgramTrie(NgramCounts counts, int order, int vocabularySize) {
+		this.order = order;
+		words = new int[order + 1][];
+		cumulative = new long[order + 1][];
+		offsets = new int[order + 1][];
+
+		long running = 0;
+		counted = new boolean[vocabularySize];
+		cumulative[1] = new long[vocabularySize];
+		NgramTable unigrams = counts.table(1);
+		for(int id = 0; id < unigrams.size(); id++) {
+			counted[(int) unigrams.key(id)] = true;
+			cumulative[1][(int) unigrams.key(id)] = unigrams.count(id);
+		}
+		for(int w = 0; w < vocabularySize; w++) {
+			running += cumulative[1][w];
+			cumulative[1][w] = running;
+		}
+
+		// Trie position of each table id of the level below, word ids for level 1
+		int[] positions = null;
+		int parents = vocabularySize;
+		for(int n = 2; n <= order; n++) {
+			NgramTable table = counts.table(n);
+			int size = table.size();
+
+			// Bucket the entries by parent, then sort each bucket by word
+			int[] start = new int[parents + 1];
+			for(int id = 0; id < size; id++) {
+				start[parent(table.key(id), positions) + 1]++;
+			}
+			for(int p = 0; p < parents; p++) {
+				start[p + 1] += start[p];
+			}
+			int[] fill = Arrays.copyOf(start, parents);
+			long[] sorted = new long[size];
+			for(int id = 0; id < size; id++) {
+				long key = table.key(id);
+				sorted[fill[parent(key, positions)]++] = ((long) NgramKey.word(key) << 32) | id;
+			}
+			for(int p = 0; p < parents; p++) {
+				if(start[p + 1] - start[p] > 1) {
+					Arrays.sort(sorted, start[p], start[p + 1]);
+				}
+			}
+
+			offsets[n - 1] = start;
+			words[n] = new int[size];
+			cumulative[n] = new long[size];
+			positions = new int[size];
+			running = 0;
+			for(int i = 0; i < size; i++) {
+				int id = (int) sorted[i];
+				words[n][i] = (int) (sorted[i] >>> 32);
+				running += table.count(id);
+				cumulative[n][i] = running;
+				positions[id] = i;
+			}
+			parents = size;
+		}
+	}
+
+	private static int parent(long key, int[] positions) {
+		return (positions == null) ? NgramKey.context(key) : positions[NgramKey.context(key)];
+	}
+
+	public int getOrder() {
+		return order;
+	}
+
+	/*
+	 * Number of entries of level n, the vocabulary size for level 1
+	 */
+	public int size(int n) {
+		return cumulative[n].length;
+	}
+
+	/*
+	 * Last word of an entry of level n
+	 */
+	public int word(int n, int node) {
+		return (n == 1) ? node : words[n][node];
+	}
+
+	public int count(int n, int node) {
+		return (int) (cumulative[n][node] - ((node == 0) ? 0 : cumulative[n][node - 1]));
+	}
+
+	/*
+	 * Entry of level n - 1 that the given entry of level n extends, the first word for level 2
+	 */
+	public int parent(int n, int node) {
+		// The last parent whose continuations start at or before the entry
+		int[] level = offsets[n - 1];
+		int low = 0;
+		int high = level.length - 2;
+		while(low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if(level[mid] <= node) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	/*
+	 * Writes the n words of an entry of level n to ngram[0, n)
+	 */
+	public void words(int n, int node, int[] ngram) {
+		for(int level = n; level >= 2; level--) {
+			ngram[level - 1] = words[level][node];
+			node = parent(level, node);
+		}
+		ngram[0] = node;
+	}
+
+	/*
+	 * Bytes held by the arrays of every level
+	 */
+	public long memoryBytes() {
+		long bytes = counted.length;
+		for(int n = 1; n <= order; n++) {
+			bytes += 8L * cumulative[n].length;
+			bytes += (words[n] == null) ? 0 : 4L * words[n].length;
+			bytes += (offsets[n] == null) ? 0 : 4L * offsets[n].length;
+		}
+		return bytes;
+	}
+
+	/*
+	 * Returns the entry of level n extending the given entry of level n - 1
+	 * with the word, or -1 if it was not counted. The parent is ignored for level 1,
+	 * where the entry of a counted word is its word id.
+	 */
+	public int find(int n, int parent, int word) {
+		if(n == 1) {
+			return (word >= 0 && word < counted.length && counted[word]) ? word : -1;
+		}
+		int low = offsets[n - 1][parent];
+		int high = offsets[n - 1][parent + 1] - 1;
+		int[] level = words[n];
+		while(low <= high) {
+			int mid = (low + high) >>> 1;
+			if(level[mid] < word) {
+				low = mid + 1;
+			} else if(level[mid] > word) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/*
+	 * Returns the entry of the n-gram ngram[from, to), or -1 if it was not counted
+	 */
+	public int find(int[] ngram, int from, int to) {
+		int node = -1;
+		for(int a = from; a < to; a++) {
+			node = find(a - from + 1, node, ngram[a]);
+			if(node == -1) {
+				return -1;
+			}
+		}
+		return node;
+	}
+
+	/*
+	 * First continuation of an entry of level n, as an entry of level n + 1
+	 */
+	public int continuationStart(int n, int node) {
+		return (n < order) ? offsets[n][node] : 0;
+	}
+
+	/*
+	 * End of the continuations of an entry of level n, exclusive
+	 */
+	public int continuationEnd(int n, int node) {
+		return (n < order) ? offsets[n][node + 1] : 0;
+	}
+
+	/*
+	 * Total count of the continuations of an entry of level n
+	 */
+	public long continuationTotal(int n, int node) {
+		int start = continuationStart(n, node);
+		int end = continuationEnd(n, node);
+		if(start == end) {
+			return 0;
+		}
+		return cumulative[n + 1][end - 1] - ((start == 0) ? 0 : cumulative[n + 1][start - 1]);
+	}
+
+	/*
+	 * Picks a continuation of an entry of level n with probability proportional to its count,
+	 * given a uniform random number in [0, 1). Returns the entry of level n + 1, or -1 if there is none.
+	 */
+	public int sample(int n, int node, double random) {
+		long total = continuationTotal(n, node);
+		if(total == 0) {
+			return -1;
+		}
+		long[] level = cumulative[n + 1];
+		int low = continuationStart(n, node);
+		long base = (low == 0) ? 0 : level[low - 1];
+		double target = base + random * total;
+
+		// First entry whose running total exceeds the target
+		int high = continuationEnd(n, node) - 1;
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if(level[mid] > target) {
+				high = mid;
+			} else {
+				low = mid + 1;
+			}
+		}
+		return low;
+	}
+}
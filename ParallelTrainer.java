@@ -0,0 +1,116 @@
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/*
+ * Trains a Parser on several cores. The corpus is streamed and cut into
+ * batches of whole sentences; each batch is counted into a shard Parser
+ * on a worker thread, and the shards are merged into the target parser
+ * in corpus order, so the result is identical to serial training.
+ */
+public class ParallelTrainer {
+
+	private static final int BATCH_SENTENCES = 2048;
+
+	private int threads;
+
+	public ParallelTrainer(int threads) {
+		this.threads = threads;
+	}
+
+	/*
+	 * Trains the parser on the given corpus file
+	 * "b" = bible, "h" = hotel
+	 */
+	public void train(final Parser parser, String filename, String type) throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		final ArrayDeque<Future<Parser>> pending = new ArrayDeque<>();
+		try {
+			final ArrayList<String> batch = new ArrayList<>(BATCH_SENTENCES);
+			new CorpusReader(filename, type).readSentences(new Consumer<String>() {
+				public void accept(String sentence) {
+					batch.add(sentence);
+					if(batch.size() == BATCH_SENTENCES) {
+						submit(pool, pending, batch, parser.getOrder());
+						batch.clear();
+						// Bound the number of shards waiting to be merged
+						while(pending.size() > threads * 2) {
+							parser.merge(next(pending));
+						}
+					}
+				}
+			});
+			if(!batch.isEmpty()) {
+				submit(pool, pending, batch, parser.getOrder());
+			}
+			while(!pending.isEmpty()) {
+				parser.merge(next(pending));
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private static void submit(ExecutorService pool, ArrayDeque<Future<Parser>> pending, ArrayList<String> batch,
+			final int order) {
+		final String[] sentences = batch.toArray(new String[batch.size()]);
+		pending.add(pool.submit(() -> {
+			Parser shard = new Parser(null, order);
+			for(String sentence: sentences) {
+				shard.processSentence(sentence);
+			}
+			return shard;
+		}));
+	}
+
+	private static Parser next(ArrayDeque<Future<Parser>> pending) {
+		try {
+			return pending.poll().get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Training was interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Training a shard failed", e.getCause());
+		}
+	}
+
+	/*
+	 * Reports the training speedup over the serial Parser for increasing thread counts.
+	 * Arguments: corpus file, corpus type and optionally the maximum number of threads.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println("Usage: java ParallelTrainer <corpus> <b|h|other> [max threads]");
+			return;
+		}
+		int maxThreads = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+		// The first serial run only warms up the JIT
+		Parser serial = null;
+		long start = 0;
+		for(int run = 0; run < 2; run++) {
+			start = System.nanoTime();
+			serial = new Parser(args[0]);
+			serial.processCorpus(args[1], "");
+		}
+		double serialTime = (System.nanoTime() - start) / 1e6;
+		System.out.printf("serial: %.0f ms, %d unigrams, %d bigrams%n",
+				serialTime, serial.getUnigrams().size(), serial.getBigrams().size());
+
+		for(int t = 1; t <= maxThreads; t = (t == maxThreads) ? t + 1 : Math.min(t * 2, maxThreads)) {
+			start = System.nanoTime();
+			Parser parser = new Parser(args[0]);
+			new ParallelTrainer(t).train(parser, args[0], args[1]);
+			double time = (System.nanoTime() - start) / 1e6;
+			boolean same = parser.getUnigrams().size() == serial.getUnigrams().size()
+					&& parser.getBigrams().size() == serial.getBigrams().size();
+			System.out.printf("%d threads: %.0f ms, speedup %.2fx%s%n",
+					t, time, serialTime / time, same ? "" : " (model differs from serial!)");
+		}
+	}
+}
@@ -1,49 +1,191 @@
-import java.util.HashMap;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.text.BreakIterator;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Locale;
-import java.util.Iterator;
+import java.util.function.LongConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class Parser {
 	
 
+	private static final Logger LOG = Logger.getLogger(Parser.class.getName());
+	private static final Metrics.Counter SENTENCES = Metrics.counter("parser.sentences");
+	private static final Metrics.Histogram SENTENCE_TOKENS = Metrics.histogram("parser.sentence.tokens");
+	private static final Metrics.Timer TOKENIZE = Metrics.timer("parser.tokenize");
+	private static final Metrics.Timer COUNT = Metrics.timer("parser.count");
+	private static final Metrics.Timer SCORE = Metrics.timer("parser.score");
+	private static final Metrics.Counter SCORED_TOKENS = Metrics.counter("parser.score.tokens");
+	// Smoothing time by order
+	private static final Metrics.Timer[] SMOOTH = new Metrics.Timer[NgramCounts.MAX_ORDER + 1];
+	static {
+		for(int n = 1; n <= NgramCounts.MAX_ORDER; n++) {
+			SMOOTH[n] = Metrics.timer("parser.smooth." + n);
+		}
+	}
+
 	private String filename;
-	private static final int GOOD_TURING_K = 5;
-	
-	private HashMap<Token, Double> unigrams = new HashMap<Token, Double>();
-	private HashMap<Bigram, Double> bigrams = new HashMap<Bigram, Double>();
-	private HashMap<Trigram, Double> trigrams = new HashMap<Trigram, Double>();
-	private HashMap<Token, Double> gtunigrams = new HashMap<Token, Double>();
-	private HashMap<Bigram, Double> gtbigrams = new HashMap<Bigram, Double>();
-	private HashMap<Trigram, Double> gttrigrams = new HashMap<Trigram, Double>();
+	static final int GOOD_TURING_K = 5;
+	
+	// N-grams are counted in hash tables keyed by word ids, see Vocabulary, NgramKey and NgramCounts,
+	// and read through the trie built from them, see NgramTrie. compact() drops the tables.
+	// Smoothed counts are views of the trie by order, see SmoothedCounts.
+	private Vocabulary vocabulary = new Vocabulary();
+	private NgramCounts ngrams = new NgramCounts();
+	private int order;
+	// Good-Turing c* by order, the smoothed views are built from them over the trie on first use
+	private double[][] stars = new double[NgramCounts.MAX_ORDER + 1][];
+	private SmoothedCounts[] smoothed = new SmoothedCounts[NgramCounts.MAX_ORDER + 1];
+	// Good-Turing count of a single unseen n-gram, by order
+	private double[] unseen = new double[NgramCounts.MAX_ORDER + 1];
+	private boolean incremental = false;
+	private SpillingCounter spiller = null;
 
-	private double smoothed_unseen_bigram_count = 0;
+	private double gt_unigram_sum = 0;
+	private BigramModel bigramModel = null;
+	private NgramModel[] ngramModels = new NgramModel[NgramCounts.MAX_ORDER + 1];
+	private Smoothing smoothing = Smoothing.GOOD_TURING;
+	private BackoffModel[] backoffModels = new BackoffModel[NgramCounts.MAX_ORDER + 1];
+	private NgramTrie trie = null;
+	private AliasSampler unigramSampler = null;
+	
+	private Tokenizer tokenizer = new Tokenizer();
+	// Word ids of the sentence or chunk being processed
+	private int[] ids = new int[256];
 	
 	/*
-	 * Create a parser instance for the given file
+	 * Create a parser instance for the given file, counting unigrams, bigrams and trigrams
 	 */
 	public Parser(String name) {
+		this(name, 3);
+	}
+	
+	/*
+	 * Create a parser instance for the given file, counting the n-grams of orders 1 to order
+	 */
+	public Parser(String name, int order) {
+		if(order < 1 || order > NgramCounts.MAX_ORDER) {
+			throw new IllegalArgumentException("N-gram order must be between 1 and " + NgramCounts.MAX_ORDER);
+		}
 		filename = name;
+		this.order = order;
 	}
 	
 	public void setFile(String name) {
 		filename = name;
 	}
 	
+	/*
+	 * In incremental mode the count tables keep their N_c histograms up to date as
+	 * chunks are counted, so smoothing again after new chunks reads the histograms
+	 * instead of scanning the tables. The smoothed counts are the same as after
+	 * smoothing the whole corpus from scratch.
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+		for(int n = 1; n <= NgramCounts.MAX_ORDER; n++) {
+			counts().table(n).trackCounts(incremental ? GOOD_TURING_K + 1 : -1);
+		}
+	}
+	
+	public boolean isIncremental() {
+		return incremental;
+	}
+	
+	/*
+	 * Bounds the memory of the count tables while counting: once they hold more than
+	 * budget bytes they are spilled to sorted runs in the directory and counting starts
+	 * over. finishCounting merges the runs into the final counts; processCorpus and the
+	 * smoothing methods call it. Only the vocabulary and the final counts stay unbounded.
+	 */
+	public void setMemoryBudget(long budget, File directory) {
+		spiller = new SpillingCounter(budget, directory);
+	}
+	
+	public SpillingCounter getSpillingCounter() {
+		return spiller;
+	}
+	
+	/*
+	 * Merges any spilled runs and the counts in memory into the final counts
+	 */
+	public void finishCounting() throws IOException {
+		if(spiller == null || !spiller.hasRuns()) {
+			return;
+		}
+		countsChanged();
+		spiller.spill(ngrams, NgramCounts.MAX_ORDER);
+		ngrams = spiller.merge(NgramCounts.MAX_ORDER);
+		if(incremental) {
+			setIncremental(true);
+		}
+	}
+	
+	/*
+	 * Spills the counts once they are over the memory budget
+	 */
+	private void checkBudget() {
+		if(spiller != null && spiller.overBudget(ngrams)) {
+			countsChanged();
+			try {
+				spiller.spill(ngrams, NgramCounts.MAX_ORDER);
+			} catch (IOException e) {
+				throw new UncheckedIOException("Could not spill the counts", e);
+			}
+			ngrams = new NgramCounts();
+		}
+	}
+	
+	private void mergeSpills() {
+		try {
+			finishCounting();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not merge the spilled counts", e);
+		}
+	}
+	
 	/*
 	 * Preprocesses the specified type of corpora
 	 * "b" = bible, "h" = hotel
 	 */
 	public void processCorpus(String type, String perplexity) {
 		File file = new File(filename);
-		String clean = "";
 		
+		// Training streams the file sentence by sentence instead of loading it whole
+		if(!perplexity.equals("pu") && !perplexity.equals("pb") && !perplexity.equals("pt")) {
+			try {
+				new CorpusReader(filename, type).readSentences(this::processSentence);
+				if(spiller != null && spiller.hasRuns()) {
+					finishCounting();
+					System.out.println(spiller.report());
+				}
+			} catch (IOException e) {
+				System.out.println("An error occured while reading the file \"" + file.getName() + "\"");
+			}
+			return;
+		}
+		
+		// Test files stream through a StreamingEvaluator too, unless the unigram terms are traced
+		if(!perplexity.equals("pu") || !LOG.isLoggable(Level.FINEST)) {
+			ScoringModel model = perplexity.equals("pu") ? getNgramModel(1) : getScoringModel(perplexity.equals("pt") ? 3 : 2);
+			try {
+				double pp = new StreamingEvaluator(new String[] {perplexity}, new ScoringModel[] {model}).evaluate(filename, type)[0];
+				if(!perplexity.equals("pb")) {
+					System.out.println("Perplexity of test corpus " + filename + ": " + pp);
+				}
+			} catch (IOException e) {
+				System.out.println("An error occured while reading the file \"" + file.getName() + "\"");
+			}
+			return;
+		}
+		
+		String clean = "";
 		try {
 			String content = new String(Files.readAllBytes(Paths.get(file.getAbsolutePath())));	
 			
@@ -63,116 +205,168 @@ public class Parser {
 			return;
 		}
 		
-		if(perplexity.equals("pu")) {
-			computeUnigramPerplexity(clean.replaceAll("\n", ""));
-		} else if(perplexity.equals("pb")) {
-			computeBigramPerplexity(clean.replaceAll("\n", ""));
-		} else {
-			processChunk(clean.replaceAll("\n", ""));
-		}
+		System.out.println("Perplexity of test corpus " + filename + ": " + computeUnigramPerplexity(clean.replaceAll("\n", "")));
 	}
 	
 	/*
 	 * Process an arbitrary string chunk,
-	 * store the resulting unigram and bigram language models in their respective fields
+	 * store the resulting n-gram language models in their respective fields
 	 */
 	public void processChunk(String chunk) {
 		BreakIterator iterator = BreakIterator.getSentenceInstance(Locale.US);
 		iterator.setText(chunk);
 		int start = iterator.first();
 		for(int end = iterator.next(); end != BreakIterator.DONE; start = end, end = iterator.next()) {
-			String sentence = chunk.substring(start, end).trim();
-			//System.out.println(sentence);
-			processSentenceUnigrams(sentence);
-			processSentenceBigrams(sentence);
+			processSentence(chunk.substring(start, end).trim());
 		}
 	}
 	
+	/*
+	 * Stores the n-gram language model information of a single trimmed sentence.
+	 * The sentence is tokenized once and the tokens are shared by every order.
+	 */
+	public void processSentence(String sentence) {
+		count(internSentence(sentence), 1, order);
+		checkBudget();
+	}
+	
 	/*
 	 * Stores unigram language model information from a sentence
 	 */
 	public void processSentenceUnigrams(String s) {
-		// Increment the number of start-of-sentence tokens.
-		Token startToken = new Token(null, TokenType.START);
-		if (unigrams.get(startToken) == null) unigrams.put(startToken, 1.0);
-		else unigrams.put(startToken, unigrams.get(startToken) + 1); 
-		
-		// Process and tokenize
-		String processed = s.replaceAll("([(),!.?;:])", " $1 ");
-		String[] tokens = processed.split("\\s+");
-		
-		// Increment the value for each token in the map.
-		for(int a = 0; a < tokens.length; a++) {
-			Token newToken = new Token(tokens[a].trim(), TokenType.WORD);
-			if (unigrams.get(newToken) == null) unigrams.put(newToken, 1.0);
-			else unigrams.put(newToken, unigrams.get(newToken) + 1);
+		count(internSentence(s), 1, 1);
+		checkBudget();
+	}
+	
+	/*
+	 * Stores unigram language model information from a sentence and hands its
+	 * bigram keys to the sink instead of counting them, for bigrams counted elsewhere
+	 */
+	void processSentenceUnigrams(String s, LongConsumer bigrams) {
+		int size = internSentence(s);
+		count(size, 1, 1);
+		int prev = Vocabulary.START;
+		for(int a = 0; a <= size; a++) {
+			int word = (a == size) ? Vocabulary.END : ids[a];
+			bigrams.accept(NgramKey.pack(prev, word));
+			prev = word;
 		}
-		
-		// Increment the number of end-of-sentence tokens.
-		Token endToken = new Token(null, TokenType.END);
-		if (unigrams.get(endToken) == null) unigrams.put(endToken, 1.0);
-		else unigrams.put(endToken, unigrams.get(endToken) + 1); 
 	}
 	
 	/*
 	 * Stores bigram language model information from a sentence
 	 */
 	public void processSentenceBigrams(String s) {
-		// Process and tokenize
-		String processed = s.replaceAll("([(),!.?;:])", " $1 ");
-		String[] tokens = processed.split("\\s+");
-		
-		// Define start token
-		Token prev = new Token(null, TokenType.START);
-		
-		// Increment the value of each bigram in the map.
-		for(int a = 0; a < tokens.length; a++) {
-			Token newToken = new Token(tokens[a].trim(), TokenType.WORD);
-			Bigram newBigram = new Bigram(prev, newToken);
-			if (bigrams.get(newBigram) == null) bigrams.put(newBigram, 1.0);
-			else bigrams.put(newBigram, bigrams.get(newBigram) + 1);
-			prev = newToken;
-		}
-		
-		// Increment the number of end-of-sentence bigrams.
-		Bigram endBigram = new Bigram(prev, new Token(null, TokenType.END));
-		if (bigrams.get(endBigram) == null) bigrams.put(endBigram, 1.0);
-		else bigrams.put(endBigram, bigrams.get(endBigram) + 1);
+		count(internSentence(s), 2, 2);
+		checkBudget();
 	}
 	
 	public void processSentenceTrigrams(String s) {
-		//Process and tokenize
-		String processed = s.replaceAll("([(),!.?;:])", " $1 ");
-		String [] tokens = processed.split("\\s+");
-		
-		//Define start token
-		Token prev = new Token(null, TokenType.START);
-		
-		//Add each trigram to the map.
-		for(int a = 0; a < (tokens.length - 1); a++) {
-			Token newToken = new Token(tokens[a].trim(), TokenType.WORD);
-			Token successorToken = new Token(tokens[a+1].trim(), TokenType.WORD);
-			Trigram newTrigram = new Trigram(prev, newToken, successorToken);
-			if (trigrams.get(newTrigram) == null) trigrams.put(newTrigram, 1.0);
-			else trigrams.put(newTrigram, trigrams.get(newTrigram) + 1);
-			prev = newToken;
+		count(internSentence(s), 3, 3);
+		checkBudget();
+	}
+	
+	/*
+	 * Adds the raw counts of another parser to this one. Words are mapped into
+	 * this parser's vocabulary in the other parser's id order, so merging the
+	 * shards of a corpus in order gives the same ids and counts as a serial run.
+	 */
+	public void merge(Parser shard) {
+		countsChanged();
+		Vocabulary other = shard.getVocabulary();
+		int[] remap = new int[other.size()];
+		for(int id = 0; id < other.size(); id++) {
+			remap[id] = (other.word(id) == null) ? id : vocabulary.intern(other.word(id));
 		}
 		
-		//Handle the final trigram.
-		Trigram endTrigram = new Trigram(prev, new Token(tokens[tokens.length - 1].trim(), TokenType.WORD),
-				                         new Token(null, TokenType.END));
-		if (trigrams.get(endTrigram) == null) trigrams.put(endTrigram, 1.0);
-		else trigrams.put(endTrigram, trigrams.get(endTrigram) + 1.0);
+		counts().merge(shard.getNgrams(), remap);
+		checkBudget();
+	}
+	
+	/*
+	 * Tokenizes a sentence into the ids buffer, adding new words to the vocabulary
+	 */
+	private int internSentence(String s) {
+		countsChanged();
+		long start = TOKENIZE.start();
+		int size = tokenizer.tokenize(s);
+		tokenizer.trimTokens();
+		ensureIdCapacity(size);
+		for(int a = 0; a < size; a++) {
+			ids[a] = vocabulary.intern(s, tokenizer.start(a), tokenizer.end(a));
+		}
+		TOKENIZE.stop(start);
+		SENTENCES.increment();
+		SENTENCE_TOKENS.record(size);
+		return size;
+	}
+	
+	/*
+	 * Counts the n-grams of orders lowest to highest in the sentence in the ids buffer
+	 */
+	private void count(int size, int lowest, int highest) {
+		long start = COUNT.start();
+		counts().count(ids, size, lowest, highest);
+		COUNT.stop(start);
+	}
+	
+	/*
+	 * Drops the models derived from the counts so they are rebuilt on next use
+	 */
+	private void countsChanged() {
+		counts();
+		smoothingChanged();
+		trie = null;
+		Arrays.fill(smoothed, null);
+		unigramSampler = null;
+	}
+
+	/*
+	 * The count tables, unless compact() dropped them
+	 */
+	private NgramCounts counts() {
+		if(ngrams == null) {
+			throw new IllegalStateException("The counts were compacted into the trie and cannot change");
+		}
+		return ngrams;
+	}
+
+	/*
+	 * Builds the trie if needed and drops the count tables, which hold the same counts
+	 * in about twice the memory. Call it once counting and smoothing are done: the
+	 * smoothed counts, scoring models, model files and Generator read the trie, but
+	 * nothing can be counted or smoothed afterwards.
+	 */
+	public void compact() {
+		mergeSpills();
+		getTrie();
+		ngrams = null;
+	}
+	
+	/*
+	 * Drops the scoring models so they are rebuilt from the new smoothed counts
+	 */
+	private void smoothingChanged() {
+		bigramModel = null;
+		Arrays.fill(ngramModels, null);
+		Arrays.fill(backoffModels, null);
+	}
+	
+	private void ensureIdCapacity(int size) {
+		if(size > ids.length) {
+			ids = Arrays.copyOf(ids, Math.max(size, ids.length * 2));
+		}
 	}
 	
 	/*
 	 * Displays info about the unigram language model
 	 */
 	public void unigramDump() {
+		NgramTable unigrams = counts().table(1);
 		System.out.println("Unigram info:");
-		System.out.println("Size of unigram HashMap is " + unigrams.size());
-		for(Token t: unigrams.keySet()) {
-			System.out.println(t.printVal() + ", " + unigrams.get(t));
+		System.out.println("Size of unigram table is " + unigrams.size());
+		for(int id = 0; id < unigrams.size(); id++) {
+			System.out.println(vocabulary.printVal((int) unigrams.key(id)) + ", " + unigrams.count(id));
 		}
 	}
 	
@@ -181,54 +375,176 @@ public class Parser {
 	 */
 	public void bigramDump() {
 		System.out.println("Bigram info:");
-		System.out.println("Size of bigram HashMap is " + bigrams.size());
-		for(Bigram b: bigrams.keySet()) {
-			System.out.println(b.printVal() + ", " + bigrams.get(b));
+		System.out.println("Size of bigram table is " + counts().table(2).size());
+		for(int id = 0; id < counts().table(2).size(); id++) {
+			System.out.println(ngramString(2, id));
 		}
 	}
 	
 	public void trigramDump() {
 		System.out.println("Trigram info:");
-		for(Trigram t : trigrams.keySet()) {
-			System.out.println(t.printVal() + ", " + trigrams.get(t));
+		for(int id = 0; id < counts().table(3).size(); id++) {
+			System.out.println(ngramString(3, id));
+		}
+		System.out.println("Size of trigram table is " + counts().table(3).size());
+	}
+	
+	/*
+	 * Displays info about the n-gram language model of order n
+	 */
+	public void ngramDump(int n) {
+		System.out.println(n + "-gram info:");
+		System.out.println("Size of " + n + "-gram table is " + counts().table(n).size());
+		for(int id = 0; id < counts().table(n).size(); id++) {
+			System.out.println(ngramString(n, id));
+		}
+	}
+	
+	private String ngramString(int n, int id) {
+		int[] words = new int[n];
+		counts().words(n, id, words);
+		StringBuilder line = new StringBuilder("[");
+		for(int a = 0; a < n; a++) {
+			line.append(a == 0 ? "" : "; ").append(vocabulary.printVal(words[a]));
+		}
+		return line.append("], ").append(counts().table(n).count(id)).toString();
+	}
+	
+	public Vocabulary getVocabulary() {
+		return vocabulary;
+	}
+	
+	/*
+	 * Highest n-gram order counted by processSentence
+	 */
+	public int getOrder() {
+		return order;
+	}
+	
+	/*
+	 * Counts of every order, until compact() drops them
+	 */
+	public NgramCounts getNgrams() {
+		return counts();
+	}
+	
+	/*
+	 * Smoothed counts of order n by trie entry, see getTrie(), or null if order n was not smoothed
+	 */
+	public SmoothedCounts getGTNgrams(int n) {
+		if(smoothed[n] == null && stars[n] != null) {
+			smoothed[n] = new SmoothedCounts(getTrie(), n, stars[n]);
+		}
+		return smoothed[n];
+	}
+	
+	/*
+	 * Unigram counts keyed by word id
+	 */
+	public NgramTable getUnigrams() {
+		return counts().table(1);
+	}
+	
+	/*
+	 * Smoothed unigram counts by word id
+	 */
+	public SmoothedCounts getGTUnigrams() {
+		return getGTNgrams(1);
+	}
+	
+	/*
+	 * Total of the smoothed unigram counts
+	 */
+	public double getGTUnigramSum() {
+		return gt_unigram_sum;
+	}
+	
+	/*
+	 * Bigram counts keyed by NgramKey.pack(first, second)
+	 */
+	public NgramTable getBigrams() {
+		return counts().table(2);
+	}
+	
+	/*
+	 * Sampler over the unigram counts, built on first use after training
+	 */
+	public AliasSampler getUnigramSampler() {
+		if(unigramSampler == null) {
+			unigramSampler = new AliasSampler(getTrie());
 		}
-		System.out.println("Size of trigram HashMap is " + trigrams.size());
+		return unigramSampler;
 	}
 	
-	public HashMap<Token, Double> getUnigrams() {
-		return unigrams;
+	/*
+	 * Sorted array trie of the counts of orders 1 to getOrder(), built on first use after training
+	 * and rebuilt if the counts change. The smoothed counts and every scoring model read it.
+	 */
+	public NgramTrie getTrie() {
+		if(trie == null) {
+			trie = new NgramTrie(counts(), order, vocabulary.size());
+		}
+		return trie;
 	}
 	
-	public HashMap<Token, Double> getGTUnigrams() {
-		return gtunigrams;
+	public SmoothedCounts getGTBigrams() {
+		return getGTNgrams(2);
 	}
 	
-	public HashMap<Bigram, Double> getBigrams() {
-		return bigrams;
+	/*
+	 * Trigram counts keyed by NgramKey.pack(bigram id, third)
+	 */
+	public NgramTable getTrigrams() {
+		return counts().table(3);
 	}
 	
-	public HashMap<Bigram, Double> getGTBigrams() {
-		return gtbigrams;
+	public SmoothedCounts getGTTrigrams() {
+		return getGTNgrams(3);
 	}
 	
-	public HashMap<Trigram, Double> getTrigrams() {
-		return trigrams;
+	/*
+	 * Smooths the counts of every order up to getOrder()
+	 */
+	public void smoothNgrams() {
+		for(int n = 1; n <= order; n++) {
+			smoothNgrams(n);
+		}
 	}
 	
-	public HashMap<Trigram, Double> getGTTrigrams() {
-		return gttrigrams;
+	/*
+	 * Smooths the counts of order n. Unigrams keep their own formula,
+	 * higher orders take the Katz discount of smoothBigrams.
+	 */
+	public void smoothNgrams(int n) {
+		mergeSpills();
+		if(n == 1) {
+			smoothUnigrams();
+		} else if(n == 2) {
+			smoothBigrams();
+		} else {
+			long start = SMOOTH[n].start();
+			smoothingChanged();
+			NgramTable table = counts().table(n);
+			int[] counts = table.countOfCounts(GOOD_TURING_K + 1);
+			
+			// N_0 is too large for an int beyond bigrams
+			double unseen_ngrams = Math.pow(counts().table(1).size(), n) - table.size() + counts[0];
+			double[] c_stars = katzStars(counts, unseen_ngrams);
+			unseen[n] = c_stars[0];
+			discount(n, c_stars, GOOD_TURING_K);
+			SMOOTH[n].stop(start);
+		}
 	}
 	
 	public void smoothUnigrams() {
-		unigrams.put(new Token(null, TokenType.UNK), 0.0);
+		mergeSpills();
+		long start = SMOOTH[1].start();
+		countsChanged();
+		NgramTable unigrams = counts().table(1);
+		unigrams.put(Vocabulary.UNK, 0);
 		
 		// Get counts for n-grams that appear c times
-		int[] counts = new int[GOOD_TURING_K + 1];
-		for(double d: unigrams.values()) {
-			if (d >= 0 && d <= GOOD_TURING_K) {
-				counts[(int) d]++;
-			}
-		}
+		int[] counts = unigrams.countOfCounts(GOOD_TURING_K);
 		
 		//TODO: Simple Good-Turing - smooth N_c counts to replace zeroes
 		double[] c_stars = new double[GOOD_TURING_K];
@@ -237,73 +553,56 @@ public class Parser {
 		for(int i = 0; i < GOOD_TURING_K; i++) {
 			c_stars[i] = (i+1) * ((double)counts[i+1]/counts[i]);
 		}
-		
-		// Iterate over the bigrams and replace the values with the c_star values.
-		for(Token t: unigrams.keySet()) {
-			double unsmoothedCount = unigrams.get(t);
-			if (unsmoothedCount < GOOD_TURING_K) gtunigrams.put(t, c_stars[(int) unsmoothedCount]);
-			else gtunigrams.put(t, unsmoothedCount);
+		unseen[1] = c_stars[0];
+		
+		// Replace the counts with the c_star values.
+		discount(1, c_stars, GOOD_TURING_K);
+		gt_unigram_sum = 0;
+		for(int id = 0; id < unigrams.size(); id++) {
+			int count = unigrams.count(id);
+			gt_unigram_sum += (count < GOOD_TURING_K) ? c_stars[count] : count;
 		}
+		SMOOTH[1].stop(start);
 	}
 	
 	public void smoothBigrams() {
+		mergeSpills();
+		long start = SMOOTH[2].start();
+		smoothingChanged();
+		NgramTable bigrams = counts().table(2);
 		// Get counts for n-grams that appear c times
-		int[] counts = new int[GOOD_TURING_K + 2];
-		
-		// Account for unseen bigrams
-		counts[0] += Math.pow(unigrams.size(), 2) - bigrams.size();
-		
-		// Account for unknown words
-		bigrams.put(new Bigram(new Token(null, TokenType.WORD), new Token(null, TokenType.UNK)), 0.0);
-		bigrams.put(new Bigram(new Token(null, TokenType.UNK), new Token(null, TokenType.UNK)), 0.0);
-		bigrams.put(new Bigram(new Token(null, TokenType.UNK), new Token(null, TokenType.WORD)), 0.0);
-		
-		for(double d: bigrams.values()) {
-			if (d >= 0 && d <= GOOD_TURING_K+1) {
-				counts[(int) d]++;
-			}
-		}
+		int[] counts = bigrams.countOfCounts(GOOD_TURING_K + 1);
 		
-		//TODO: Simple Good-Turing - smooth N_c counts to replace zeroes
-		double[] c_stars = new double[GOOD_TURING_K+1];
-		c_stars[0] = counts[0];
-
-		// Calculate new c_star values
-		for(int i = 0; i <= GOOD_TURING_K; i++) {
-//			c_stars[i] = (i+1) * ((double)counts[i+1]/counts[i]);
-
-			double katz_numerator = ((i+1) * (double)counts[i+1]/counts[i]) - 
-									(i * (double)(GOOD_TURING_K + 1) * (double)counts[GOOD_TURING_K+1] / counts[1]);
-			double katz_denominator = 1 - (double)(GOOD_TURING_K + 1) * (double)counts[GOOD_TURING_K+1] / counts[1];
-			
-			c_stars[i] = katz_numerator / katz_denominator;
-		}
+		double[] c_stars = bigramStars(counts, bigrams.size(), counts().table(1).size());
 		// Record count for zero probability bigrams
-		smoothed_unseen_bigram_count = c_stars[0];
+		unseen[2] = c_stars[0];
 		
-		// Iterate over the bigrams and replace the values with the c_star values.
-		for(Bigram b: bigrams.keySet()) {
-			double unsmoothedCount = bigrams.get(b);
-			if (unsmoothedCount < GOOD_TURING_K) gtbigrams.put(b, c_stars[(int) unsmoothedCount]);
-			else gtbigrams.put(b, unsmoothedCount);
-		}
+		// Replace the counts with the c_star values.
+		discount(2, c_stars, GOOD_TURING_K);
+		SMOOTH[2].stop(start);
 	}
 	
-	public void smoothBigrams2() {
-		Iterator<Double> iterator = bigrams.values().iterator();
-		int[] counts = new int[GOOD_TURING_K + 2];
+	/*
+	 * Katz c* of the bigrams for c from 0 to GOOD_TURING_K, given their N_c for c from 0 to
+	 * GOOD_TURING_K + 1, the number of bigrams and the number of unigrams
+	 */
+	static double[] bigramStars(int[] counts, int bigramCount, int unigramCount) {
+		// Account for unseen bigrams
+		counts[0] += Math.pow(unigramCount, 2) - bigramCount;
 		
-		//initialize values in counts to 0
-		for(int a = 0; a <= GOOD_TURING_K; a++) {
-			counts[a] = 0;
-		}
+		// Account for unknown words: the (word, UNK), (UNK, UNK) and (UNK, word)
+		// bigrams are never seen, so they all take the unseen bigram count
+		counts[0] += 3;
 		
-		while(iterator.hasNext()) {
-			double val = iterator.next();
-			if (val >= 0 && val <= GOOD_TURING_K + 1) {
-				counts[(int) val] = (counts[(int) val] + 1);
-			}
-		}
+		return katzStars(counts, counts[0]);
+	}
+	
+	public void smoothBigrams2() {
+		mergeSpills();
+		long start = SMOOTH[2].start();
+		smoothingChanged();
+		NgramTable bigrams = counts().table(2);
+		int[] counts = bigrams.countOfCounts(GOOD_TURING_K + 1);
 		
 		//TODO: Simple Good-Turing - smooth N_c counts to replace zeroes
 		
@@ -322,197 +621,239 @@ public class Parser {
 			c_stars[a] = katz_numerator / katz_denominator;
 		}
 		
-		//Now that we have the values for c_star, iterate over the unigrams and replace the values with the c_star values.
-		
-		Iterator<Bigram> token_iterator = bigrams.keySet().iterator();
-		
-		while(token_iterator.hasNext()) {
-			Bigram nextVal = token_iterator.next();
-			double unsmoothedCount = bigrams.get(nextVal);
-			
-			if (unsmoothedCount <= GOOD_TURING_K) gtbigrams.put(nextVal, c_stars[(int) unsmoothedCount]);
-			else gtbigrams.put(nextVal, (double) unsmoothedCount);
-		}
+		//Now that we have the values for c_star, iterate over the bigrams and replace the values with the c_star values.
+		discount(2, c_stars, GOOD_TURING_K + 1);
+		SMOOTH[2].stop(start);
 	}
 	
 	public void smoothTrigrams() {
-		Iterator<Double> iterator = trigrams.values().iterator();
-		int[] counts = new int[GOOD_TURING_K + 2];
-		
-		//initialize values in counts to 0
-		for(int a = 0; a <= GOOD_TURING_K; a++) {
-			counts[a] = 0;
-		}
-		
-		while(iterator.hasNext()) {
-			double val = iterator.next();
-			if (val >= 0 && val <= GOOD_TURING_K + 1) {
-				counts[(int) val] = (counts[(int) val] + 1);
-			}
-		}
-		
+		smoothNgrams(3);
+	}
+	
+	/*
+	 * Katz discounted counts c* for c from 0 to GOOD_TURING_K, given N_0 and N_1 to N_(k+1)
+	 */
+	private static double[] katzStars(int[] counts, double unseen_ngrams) {
 		//TODO: Simple Good-Turing - smooth N_c counts to replace zeroes
-		
-		double[] c_stars = new double[GOOD_TURING_K + 1];
-		//initalize c_stars[0] to be N_1
-		c_stars[0] = (double) counts[1];
-		
-		for(int a = 1; a <= GOOD_TURING_K; a++) {
-			//use the Katz 1987 formula (page 103 of the book) to calculate c_star given the value k
-			double c = (double) a;
-			
-			double katz_numerator = ((c+1) * ((double) counts[a+1])/((double) counts[a])) - 
-									(c * (((double) (GOOD_TURING_K + 1) * counts[a+1]) / counts[a]));
-			double katz_denominator = (double) (1 - (((double) (GOOD_TURING_K + 1) * counts[a+1]) / (double) counts[a]));
+		double[] c_stars = new double[GOOD_TURING_K+1];
+
+		// Calculate new c_star values
+		for(int i = 0; i <= GOOD_TURING_K; i++) {
+//			c_stars[i] = (i+1) * ((double)counts[i+1]/counts[i]);
+
+			double n_i = (i == 0) ? unseen_ngrams : counts[i];
+			double katz_numerator = ((i+1) * (double)counts[i+1]/n_i) - 
+									(i * (double)(GOOD_TURING_K + 1) * (double)counts[GOOD_TURING_K+1] / counts[1]);
+			double katz_denominator = 1 - (double)(GOOD_TURING_K + 1) * (double)counts[GOOD_TURING_K+1] / counts[1];
 			
-			c_stars[a] = katz_numerator / katz_denominator;
+			c_stars[i] = katz_numerator / katz_denominator;
 		}
-		
-		//Now that we have the values for c_star, iterate over the unigrams and replace the values with the c_star values.
-		
-		Iterator<Trigram> token_iterator = trigrams.keySet().iterator();
-		
-		while(token_iterator.hasNext()) {
-			Trigram nextVal = token_iterator.next();
-			double unsmoothedCount = trigrams.get(nextVal);
-			
-			if (unsmoothedCount <= GOOD_TURING_K) gttrigrams.put(nextVal, c_stars[(int) unsmoothedCount]);
-			else gttrigrams.put(nextVal, (double) unsmoothedCount);
+		return c_stars;
+	}
+	
+	/*
+	 * Smooths order n by its counts: c_stars[c] for counts below the given bound, the count itself above.
+	 * Nothing is copied, the discount is applied when a smoothed count is read.
+	 */
+	private void discount(int n, double[] c_stars, int below) {
+		stars[n] = Arrays.copyOf(c_stars, below);
+		smoothed[n] = null;
+	}
+
+	/*
+	 * Smoothed counts of orders 1 to n, indexed by order
+	 */
+	private SmoothedCounts[] smoothedUpTo(int n) {
+		SmoothedCounts[] views = new SmoothedCounts[n + 1];
+		for(int m = 1; m <= n; m++) {
+			views[m] = getGTNgrams(m);
+			if(views[m] == null) {
+				throw new IllegalStateException("Smooth the n-grams of orders 1 to " + n + " first");
+			}
 		}
+		return views;
 	}
 	
 	public double computeBigramPerplexity(String chunk) {	
-		// Parse the test corpus into a list of tokens, including sentence boundaries
-		ArrayList<Token> tokens = tokenizeChunk(chunk); 
-		
-		// Calculate perplexities
-		double pp = 0;
-		Token prev_word = null;
-		int token_count = 0;
-		
-		int uni_sum = 0;
-		for(Double u: gtunigrams.values()) {
-			uni_sum += u;
+		return computeNgramPerplexity(chunk, 2);
+	}
+	
+	/*
+	 * Returns the immutable scoring model of the smoothed unigrams and bigrams.
+	 * It is built on first use after smoothing and rebuilt if the counts change.
+	 */
+	public BigramModel getBigramModel() {
+		if(bigramModel == null) {
+			SmoothedCounts[] views = smoothedUpTo(2);
+			bigramModel = new BigramModel(vocabulary, views[1], gt_unigram_sum, views[2], unseen[2]);
 		}
-		
-		for(Token t: tokens) {
-			if(prev_word == null) {
-				// If word is unknown, use probability of unknown word
-				if(t.getType() == TokenType.UNK) {
-					pp += Math.log10(gtunigrams.get(new Token(null, TokenType.UNK))/uni_sum);
-				} else {
-					pp += Math.log10(gtunigrams.get(t)/uni_sum);
-				}
-			} else {
-				//System.out.println("-----------------");
-				//System.out.println("Prevword: " + prev_word.getWord());
-				//System.out.println("Word: " + t.getWord());
-				
-				double count = 0;
-				if(t.getType() == TokenType.UNK && prev_word.getType() == TokenType.UNK) {
-					count = gtbigrams.get(new Bigram(new Token(null, TokenType.UNK), new Token(null, TokenType.UNK)));
-				} else if(t.getType() == TokenType.UNK) {
-					count = gtbigrams.get(new Bigram(new Token(null, TokenType.WORD), new Token(null, TokenType.UNK)));
-				} else if(prev_word.getType() == TokenType.UNK) {
-					count = gtbigrams.get(new Bigram(new Token(null, TokenType.UNK), new Token(null, TokenType.WORD)));
-				} else {
-					if(gtbigrams.get(new Bigram(prev_word, t)) == null) {
-						count = smoothed_unseen_bigram_count;
-					} else {
-						//System.out.println("Bigram count: " + gtbigrams.get(new Bigram(prev_word, t)));
-						count = gtbigrams.get(new Bigram(prev_word, t));
-					}
-				}
-				
-				double prob = 0;
-				if(prev_word.getType() == TokenType.UNK) {
-					prob = count/gtunigrams.get(new Token(null, TokenType.UNK));
-				} else {
-					prob = count/gtunigrams.get(prev_word);
-				}
+		return bigramModel;
+	}
+	
+	/*
+	 * Trigram perplexity, backing off to lower orders for unseen trigrams
+	 */
+	public double computeTrigramPerplexity(String chunk) {
+		return computeNgramPerplexity(chunk, 3);
+	}
+	
+	public double computeNgramPerplexity(String chunk, int n) {
+		return computePerplexity(chunk, getScoringModel(n));
+	}
+	
+	/*
+	 * Perplexity of a chunk under a model sharing this parser's vocabulary
+	 */
+	public double computePerplexity(String chunk, ScoringModel model) {
+		// Parse the test corpus into a list of word ids, including sentence boundaries
+		long start = SCORE.start();
+		int size = tokenizeChunk(chunk);
+		
+		double perplexity = model.perplexity(ids, size);
+		SCORE.stop(start);
+		SCORED_TOKENS.add(size);
+		return perplexity;
+	}
+	
+	/*
+	 * Selects how the counts are turned into the scoring models of getScoringModel.
+	 * Good-Turing and Katz score from the smoothed counts, so smooth the orders
+	 * to be scored first. Kneser-Ney works from the raw counts.
+	 */
+	public void setSmoothing(Smoothing smoothing) {
+		this.smoothing = smoothing;
+		smoothingChanged();
+	}
+	
+	public Smoothing getSmoothing() {
+		return smoothing;
+	}
+	
+	/*
+	 * Returns the scoring model of order n for the selected smoothing
+	 */
+	public ScoringModel getScoringModel(int n) {
+		if(smoothing == Smoothing.GOOD_TURING) {
+			return (n == 2) ? getBigramModel() : getNgramModel(n);
+		}
+		return getBackoffModel(n);
+	}
+	
+	/*
+	 * Returns the Katz or Kneser-Ney backoff model of order n, with precomputed backoff weights.
+	 * It is built on first use and rebuilt if the counts or the smoothing change.
+	 */
+	public BackoffModel getBackoffModel(int n) {
+		if(smoothing == Smoothing.GOOD_TURING) {
+			throw new IllegalStateException("Backoff models need Katz or Kneser-Ney smoothing");
+		}
+		if(backoffModels[n] == null) {
+			SmoothedCounts[] views = (smoothing == Smoothing.KATZ) ? smoothedUpTo(n) : null;
+			backoffModels[n] = new BackoffModel(vocabulary, getTrie(), views, n, smoothing);
+		}
+		return backoffModels[n];
+	}
+	
+	/*
+	 * Returns the immutable scoring model of order n over the smoothed counts of orders 1 to n.
+	 * It is built on first use after smoothing and rebuilt if the counts change.
+	 */
+	public NgramModel getNgramModel(int n) {
+		if(ngramModels[n] == null) {
+			ngramModels[n] = new NgramModel(vocabulary, getTrie(), smoothedUpTo(n), unseen, gt_unigram_sum, n);
+		}
+		return ngramModels[n];
+	}
 
-				if(prob > 1) {
-					//System.out.println("hi");
-				}
-				//System.out.println("Count: " +count);
-				//System.out.println("Prob: " +prob);
-				pp += Math.log10(1/(prob));
-			}
-			//System.out.println("PP: " +pp);
-			prev_word = t;
-			token_count++;
+	/*
+	 * Writes the smoothed unigrams and bigrams to a binary model file,
+	 * which ModelFile.load maps back in without retraining.
+	 */
+	public void saveModel(String path) throws IOException {
+		if(stars[1] == null || stars[2] == null) {
+			throw new IllegalStateException("Smooth the unigrams and bigrams before saving the model");
 		}
-		
-		//System.out.println(token_count);
-		//System.out.println("Perplexity of test corpus " + filename + ": "
-		//+ Math.pow(10, pp/token_count));
-		return Math.pow(10, pp/token_count);
+		ModelFile.write(path, vocabulary, getGTUnigrams(), gt_unigram_sum, getGTBigrams(), unseen[2], GOOD_TURING_K);
+	}
+
+	/*
+	 * Returns the smoothed unigrams and bigrams as an off-heap model in a direct buffer,
+	 * in the layout of saveModel. It scores like getBigramModel() without heap objects.
+	 */
+	public MappedModel getOffHeapModel() {
+		if(stars[1] == null || stars[2] == null) {
+			throw new IllegalStateException("Smooth the unigrams and bigrams before building the model");
+		}
+		try {
+			return ModelFile.toDirectBuffer(vocabulary, getGTUnigrams(), gt_unigram_sum, getGTBigrams(),
+					unseen[2], GOOD_TURING_K);
+		} catch (IOException e) {
+			throw new IllegalStateException("Model does not fit in a direct buffer", e);
+		}
+	}
+
+	/*
+	 * Returns the id of text[start, end) for scoring, or the id of the unknown word
+	 * if it was not seen in training. Safe to call from several threads once training is done.
+	 */
+	public int scoringId(String text, int start, int end) {
+		int id = vocabulary.id(text, start, end);
+		return (id == -1) ? Vocabulary.UNK : id;
 	}
 	
+	/*
+	 * Unigram perplexity from the precomputed terms of the order 1 model. With the
+	 * logger at FINEST the terms are computed token by token and logged instead.
+	 */
 	public double computeUnigramPerplexity(String chunk) {
-		// Parse the test corpus into a list of tokens, including sentence boundaries
-		ArrayList<Token> tokens = tokenizeChunk(chunk); 
+		if(!LOG.isLoggable(Level.FINEST)) {
+			return computePerplexity(chunk, getNgramModel(1));
+		}
+		
+		// Parse the test corpus into a list of word ids, including sentence boundaries
+		int size = tokenizeChunk(chunk); 
 		
 		// Calculate perplexities
 		double pp = 0;
 		int token_count = 0;
 		
-		int uni_sum = 0;
-		for(Double u: gtunigrams.values()) {
-			uni_sum += u;
-		}
-		
-		for(Token t: tokens) {
-			System.out.println("-----------------");
-			System.out.println("Word: " + t.getWord());
-			
-			double count = 0;
-			if(t.getType() == TokenType.UNK) {
-				count = gtunigrams.get(new Token(null, TokenType.UNK));
-			} else {
-				count = gtunigrams.get(t);
-			}
+		for(int a = 0; a < size; a++) {
+			int t = ids[a];
 			
-			double prob = count/uni_sum;
+			double count = getGTUnigrams().get(t);
+			double prob = count/gt_unigram_sum;
 
 			pp += Math.log10(1/(prob));
 			token_count++;
 			
-			System.out.println("Count: " +count);
-			System.out.println("Prob: " +prob);
-			System.out.println("PP: " +pp);
+			LOG.finest("Word: " + vocabulary.word(t) + ", count: " + count + ", prob: " + prob + ", PP: " + pp);
 		}
 		
-		System.out.println("-----------------");
-		System.out.println("Perplexity of test corpus " + filename + ": " + Math.pow(10, pp/token_count));
 		return Math.pow(10, pp/token_count);
 	}
 	
-	private ArrayList<Token> tokenizeChunk(String chunk) {
-		ArrayList<Token> tokens = new ArrayList<>();
+	/*
+	 * Tokenizes a chunk into the ids buffer and returns the number of ids.
+	 * Words outside the vocabulary are mapped to the unknown word.
+	 */
+	private int tokenizeChunk(String chunk) {
+		int size = 0;
 		
 		BreakIterator iterator = BreakIterator.getSentenceInstance(Locale.US);
 		iterator.setText(chunk);
 		int start = iterator.first();
 		for(int end = iterator.next(); end != BreakIterator.DONE; start = end, end = iterator.next()) {
-			tokens.add(new Token(null, TokenType.START));
-			
-			// Process and tokenize each sentence
+			// Tokenize each sentence
 			String sentence = chunk.substring(start, end).trim();
-			String processed = sentence.replaceAll("([(),!.?;:])", " $1 ");
-			String[] sentence_tokens = processed.split("\\s+");
-			for(String s: sentence_tokens) {
-				Token t = new Token(s, TokenType.WORD);
-				
-				// if the word is not in our unigram map, add it to the list as an unknown word
-				if(unigrams.containsKey(t)) {
-					tokens.add(t);
-				} else {
-					tokens.add(new Token(s, TokenType.UNK));
-				}
+			int sentence_size = tokenizer.tokenize(sentence);
+			ensureIdCapacity(size + sentence_size + 2);
+			
+			ids[size++] = Vocabulary.START;
+			for(int a = 0; a < sentence_size; a++) {
+				ids[size++] = scoringId(sentence, tokenizer.start(a), tokenizer.end(a));
 			}
-			tokens.add(new Token(null, TokenType.END));
+			ids[size++] = Vocabulary.END;
 		}
-		return tokens;
+		return size;
 	}
 }
@@ -0,0 +1,227 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.BreakIterator;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * Classifies test reviews as truthful or deceptive by comparing their
+ * perplexity under the two class models. Reviews are scored in batches on a
+ * worker pool and the results are written in the original review order.
+ */
+public class ReviewClassifier {
+
+	private static final int BATCH_REVIEWS = 256;
+	private static final Pattern REVIEW_START = Pattern.compile("\\?,.*;\"");
+	private static final Metrics.Timer CLASSIFY = Metrics.timer("classifier.review");
+	private static final Metrics.Counter TOKENS = Metrics.counter("classifier.tokens");
+
+	private ScoringModel trueModel;
+	private ScoringModel falseModel;
+	private int threads;
+
+	public ReviewClassifier(ScoringModel trueModel, ScoringModel falseModel, int threads) {
+		this.trueModel = trueModel;
+		this.falseModel = falseModel;
+		this.threads = threads;
+	}
+
+	/*
+	 * Returns 1 if the review reads as truthful, 0 otherwise.
+	 * Each token is looked up in both models during the same pass.
+	 * Sentences are tokenized in place, so with models that score without
+	 * allocating (MappedModel) a review is classified without creating garbage.
+	 */
+	public int classify(String review, Tokenizer tokenizer, BreakIterator iterator) {
+		double truePP = 0;
+		double falsePP = 0;
+		int trueState = -1;
+		int falseState = -1;
+		int token_count = 0;
+		long time = CLASSIFY.start();
+
+		iterator.setText(review);
+		int start = iterator.first();
+		for(int end = iterator.next(); end != BreakIterator.DONE; start = end, end = iterator.next()) {
+			int size = tokenizer.tokenizeTrimmed(review, start, end);
+
+			// The sentence start, its words and the sentence end
+			for(int a = -1; a <= size; a++) {
+				int trueId;
+				int falseId;
+				if(a == -1) {
+					trueId = Vocabulary.START;
+					falseId = Vocabulary.START;
+				} else if(a == size) {
+					trueId = Vocabulary.END;
+					falseId = Vocabulary.END;
+				} else {
+					trueId = trueModel.scoringId(review, tokenizer.start(a), tokenizer.end(a));
+					falseId = falseModel.scoringId(review, tokenizer.start(a), tokenizer.end(a));
+				}
+				truePP += trueModel.term(trueState, trueId);
+				falsePP += falseModel.term(falseState, falseId);
+				trueState = trueModel.next(trueState, trueId);
+				falseState = falseModel.next(falseState, falseId);
+				token_count++;
+			}
+		}
+
+		CLASSIFY.stop(time);
+		TOKENS.add(token_count);
+		// Same comparison as on the perplexities 10^(pp / token_count)
+		return (Math.pow(10, truePP/token_count) < Math.pow(10, falsePP/token_count)) ? 1 : 0;
+	}
+
+	/*
+	 * Classifies every review of a test file and prints "index, label" lines in file order.
+	 * A review is the text following a ?,...;" marker up to the next marker.
+	 */
+	public void classifyFile(String filename, PrintStream out) throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			ResultWriter writer = new ResultWriter(out);
+			ReviewCollector collector = new ReviewCollector(batch -> writer.add(submit(pool, batch)));
+			new CorpusReader(filename, "").readLines(collector);
+			collector.finish();
+			writer.finish();
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/*
+	 * Hands every review of a test file to the handler in file order, cut the way classifyFile cuts them
+	 */
+	public static void readReviews(String filename, Consumer<String> handler) throws IOException {
+		ReviewCollector collector = new ReviewCollector(batch -> batch.forEach(handler));
+		new CorpusReader(filename, "").readLines(collector);
+		collector.finish();
+	}
+
+	private Future<int[]> submit(ExecutorService pool, ArrayList<String> batch) {
+		final String[] reviews = batch.toArray(new String[batch.size()]);
+		return pool.submit(() -> {
+			Tokenizer tokenizer = new Tokenizer();
+			BreakIterator iterator = BreakIterator.getSentenceInstance(Locale.US);
+			int[] labels = new int[reviews.length];
+			for(int a = 0; a < reviews.length; a++) {
+				labels[a] = classify(reviews[a], tokenizer, iterator);
+			}
+			return labels;
+		});
+	}
+
+	/*
+	 * Prints batch results in submission order, keeping a bounded number of batches in flight
+	 */
+	private class ResultWriter {
+
+		private PrintStream out;
+		private ArrayDeque<Future<int[]>> pending = new ArrayDeque<>();
+		private int next = 0;
+
+		ResultWriter(PrintStream out) {
+			this.out = out;
+		}
+
+		void add(Future<int[]> result) {
+			pending.add(result);
+			while(pending.size() > threads * 2) {
+				write(pending.poll());
+			}
+		}
+
+		void finish() {
+			while(!pending.isEmpty()) {
+				write(pending.poll());
+			}
+		}
+
+		private void write(Future<int[]> result) {
+			int[] labels;
+			try {
+				labels = result.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Classification was interrupted", e);
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("Classifying a batch failed", e.getCause());
+			}
+			for(int label: labels) {
+				out.println(next++ + ", " + label);
+			}
+		}
+	}
+
+	/*
+	 * Cuts the test file into reviews and hands them on in batches
+	 */
+	private static class ReviewCollector implements Consumer<String> {
+
+		private Consumer<ArrayList<String>> handler;
+		private ArrayList<String> batch = new ArrayList<>(BATCH_REVIEWS);
+		private StringBuilder review = new StringBuilder();
+		private boolean started = false;
+		// Empty reviews are held back, as split() dropped them at the end of the file
+		private int emptyReviews = 0;
+		private Matcher matcher = REVIEW_START.matcher("");
+
+		ReviewCollector(Consumer<ArrayList<String>> handler) {
+			this.handler = handler;
+		}
+
+		public void accept(String line) {
+			matcher.reset(line);
+			int start = 0;
+			while(matcher.find()) {
+				review.append(line, start, matcher.start());
+				endReview();
+				start = matcher.end();
+			}
+			review.append(line, start, line.length()).append('\n');
+		}
+
+		void finish() {
+			endReview();
+			if(!batch.isEmpty()) {
+				handler.accept(batch);
+				batch.clear();
+			}
+		}
+
+		private void endReview() {
+			// The text before the first marker is not a review
+			if(!started) {
+				started = true;
+				review.setLength(0);
+				return;
+			}
+			if(review.length() == 0) {
+				emptyReviews++;
+				return;
+			}
+			for(; emptyReviews > 0; emptyReviews--) {
+				add("");
+			}
+			add(review.toString());
+			review.setLength(0);
+		}
+
+		private void add(String text) {
+			batch.add(text);
+			if(batch.size() == BATCH_REVIEWS) {
+				handler.accept(batch);
+				batch.clear();
+			}
+		}
+	}
+}
@@ -0,0 +1,37 @@
+/*
+ * A smoothed n-gram model that test text can be scored against.
+ * Implementations are read-only and may be shared between threads.
+ */
+public interface ScoringModel {
+
+	/*
+	 * Returns the id of text[start, end) for scoring, or the id of the unknown word
+	 */
+	int scoringId(String text, int start, int end);
+
+	/*
+	 * Returns the perplexity term of word t in the given state,
+	 * where the state is -1 for the first token of a chunk
+	 */
+	double term(int state, int t);
+
+	/*
+	 * Returns the state after word t. For bigram models the state is the previous word.
+	 */
+	default int next(int state, int t) {
+		return t;
+	}
+
+	/*
+	 * Returns the perplexity of a sequence of scoring ids, including sentence boundaries
+	 */
+	default double perplexity(int[] ids, int size) {
+		double pp = 0;
+		int state = -1;
+		for(int a = 0; a < size; a++) {
+			pp += term(state, ids[a]);
+			state = next(state, ids[a]);
+		}
+		return Math.pow(10, pp/size);
+	}
+}
@@ -0,0 +1,222 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.text.BreakIterator;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Resident review classifier. The two class models are trained or loaded once
+ * and reviews are classified over a line protocol on a local socket: each line
+ * a client sends is one review and the server answers each with a line holding
+ * its label, 1 for truthful and 0 for deceptive, in the order they were sent.
+ * A review that cannot be classified is answered with a line starting with
+ * "error" and the connection goes on.
+ * Requests of all connections are collected into batches of up to MAX_BATCH
+ * reviews, waiting at most MAX_WAIT after the first, and each batch is
+ * classified on the worker pool. Request latency and batch sizes go to Metrics.
+ * Usage: java ScoringServer [--smoothing=...] [--order=N] [--port=N] [--threads=N] [--metrics=seconds] train [model prefix]
+ */
+public class ScoringServer {
+
+	public static final int DEFAULT_PORT = 4740;
+	private static final int MAX_BATCH = 64;
+	private static final long MAX_WAIT = 200000;
+
+	private static final Metrics.Timer LATENCY = Metrics.timer("server.request");
+	private static final Metrics.Histogram BATCH = Metrics.histogram("server.batch");
+	private static final Logger LOG = Logger.getLogger(ScoringServer.class.getName());
+
+	private final ReviewClassifier classifier;
+	private final ExecutorService workers;
+	private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+	private final ThreadLocal<Tokenizer> tokenizers = ThreadLocal.withInitial(Tokenizer::new);
+	private final ThreadLocal<BreakIterator> iterators = ThreadLocal.withInitial(() -> BreakIterator.getSentenceInstance(Locale.US));
+
+	public ScoringServer(ScoringModel trueModel, ScoringModel falseModel, int threads) {
+		classifier = new ReviewClassifier(trueModel, falseModel, threads);
+		workers = Executors.newFixedThreadPool(threads);
+		Thread batcher = new Thread(this::batch, "batcher");
+		batcher.setDaemon(true);
+		batcher.start();
+	}
+
+	/*
+	 * Queues a review for the next batch, the future completes with its label
+	 */
+	public CompletableFuture<Integer> submit(String review) {
+		Request request = new Request(review);
+		queue.add(request);
+		return request.label;
+	}
+
+	/*
+	 * Accepts connections on a local port until the process is stopped
+	 */
+	public void serve(int port) throws IOException {
+		try (ServerSocket server = new ServerSocket(port, 128, InetAddress.getLoopbackAddress())) {
+			System.out.println("Scoring reviews on port " + server.getLocalPort());
+			while(true) {
+				Socket socket = server.accept();
+				// Answers are a few bytes, don't let them wait for more
+				socket.setTcpNoDelay(true);
+				Thread connection = new Thread(() -> handle(socket), "connection-" + socket.getPort());
+				connection.setDaemon(true);
+				connection.start();
+			}
+		}
+	}
+
+	/*
+	 * Answers the reviews of one connection in order. Reviews sent without waiting
+	 * for the answers are queued together, so pipelining clients fill batches.
+	 */
+	private void handle(Socket socket) {
+		try (Socket s = socket;
+				BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+				BufferedWriter out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+			ArrayDeque<CompletableFuture<Integer>> pending = new ArrayDeque<>();
+			for(String line = in.readLine(); line != null; line = in.readLine()) {
+				pending.add(submit(line));
+				if(!in.ready()) {
+					while(!pending.isEmpty()) {
+						out.write(answer(pending.poll()));
+						out.newLine();
+					}
+					out.flush();
+				}
+			}
+		} catch (IOException e) {
+			// The client went away, nothing to answer
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/*
+	 * Returns the answer line of a request, an error line if classifying it failed
+	 */
+	private static String answer(CompletableFuture<Integer> label) throws InterruptedException {
+		try {
+			return Integer.toString(label.get());
+		} catch (ExecutionException e) {
+			LOG.log(Level.WARNING, "Classifying a review failed", e.getCause());
+			return "error " + e.getCause();
+		}
+	}
+
+	/*
+	 * Cuts the queue into batches and hands them to the workers
+	 */
+	private void batch() {
+		try {
+			while(true) {
+				List<Request> batch = new ArrayList<>(MAX_BATCH);
+				batch.add(queue.take());
+				long deadline = System.nanoTime() + MAX_WAIT;
+				while(batch.size() < MAX_BATCH) {
+					Request next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+					if(next == null) {
+						break;
+					}
+					batch.add(next);
+					queue.drainTo(batch, MAX_BATCH - batch.size());
+				}
+				BATCH.record(batch.size());
+				workers.execute(() -> classify(batch));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void classify(List<Request> batch) {
+		Tokenizer tokenizer = tokenizers.get();
+		BreakIterator iterator = iterators.get();
+		for(Request request: batch) {
+			try {
+				request.label.complete(classifier.classify(request.review, tokenizer, iterator));
+			} catch (RuntimeException e) {
+				request.label.completeExceptionally(e);
+			}
+			LATENCY.stop(request.start);
+		}
+	}
+
+	private static class Request {
+
+		final String review;
+		final long start = LATENCY.start();
+		final CompletableFuture<Integer> label = new CompletableFuture<>();
+
+		Request(String review) {
+			this.review = review;
+		}
+	}
+
+	public static void main(String[] argv) {
+		Smoothing smoothing = Smoothing.GOOD_TURING;
+		int order = 2;
+		int port = DEFAULT_PORT;
+		int threads = Runtime.getRuntime().availableProcessors();
+		long metrics = 10;
+		List<String> args = new ArrayList<String>();
+		try {
+			for(String arg: argv) {
+				if(arg.startsWith("--smoothing=")) {
+					smoothing = Smoothing.valueOf(arg.substring("--smoothing=".length()).toUpperCase().replace('-', '_'));
+				} else if(arg.startsWith("--order=")) {
+					order = Integer.parseInt(arg.substring("--order=".length()));
+				} else if(arg.startsWith("--port=")) {
+					port = Integer.parseInt(arg.substring("--port=".length()));
+				} else if(arg.startsWith("--threads=")) {
+					threads = Integer.parseInt(arg.substring("--threads=".length()));
+				} else if(arg.startsWith("--metrics=")) {
+					metrics = Long.parseLong(arg.substring("--metrics=".length()));
+				} else {
+					args.add(arg);
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			System.out.println("Bad option: " + e.getMessage());
+			return;
+		}
+		if(args.isEmpty()) {
+			System.out.println("Usage: java ScoringServer [--smoothing=good-turing|katz|kneser-ney] [--order=N] [--port=N] "
+					+ "[--threads=N] [--metrics=seconds] <train> [model prefix]");
+			return;
+		}
+
+		try {
+			long start = System.nanoTime();
+			ScoringModel[] models = HotelPredictor.loadModels(args.get(0), (args.size() > 1) ? args.get(1) : null, smoothing, order);
+			System.out.printf("Models ready in %.0f ms%n", (System.nanoTime() - start) / 1e6);
+			if(metrics > 0) {
+				Metrics.startReporting(metrics, System.err);
+			}
+			new ScoringServer(models[0], models[1], threads).serve(port);
+		} catch (FileNotFoundException e) {
+			System.out.println("File not found.");
+		} catch (IOException e) {
+			System.out.println("IOException: " + e.getMessage());
+		}
+	}
+}
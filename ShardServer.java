@@ -0,0 +1,69 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/*
+ * Worker process holding one shard of the bigram counts of a ShardedModel.
+ * It merges the (key, count) records of its spill file into an NgramTable,
+ * writes its number of bigrams and its N_c histogram to stdout, and then
+ * answers batches of count lookups from stdin until it reads a negative
+ * batch size. A batch is an int n followed by n keys, and the answer is
+ * the n counts, 0 for keys it does not hold.
+ */
+public class ShardServer {
+
+	private static final int BUFFER = 1 << 16;
+
+	/*
+	 * Arguments: spill file and the largest count c of the N_c histogram
+	 */
+	public static void main(String[] args) throws IOException {
+		NgramTable table = load(args[0]);
+		int max = Integer.parseInt(args[1]);
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(System.in, BUFFER));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(System.out, BUFFER));
+		out.writeInt(table.size());
+		for(int c: table.countOfCounts(max)) {
+			out.writeInt(c);
+		}
+		out.flush();
+
+		// The whole batch is read before answering, so neither side blocks on a full pipe
+		long[] keys = new long[1024];
+		for(int n = in.readInt(); n >= 0; n = in.readInt()) {
+			if(n > keys.length) {
+				keys = new long[Math.max(n, keys.length * 2)];
+			}
+			for(int i = 0; i < n; i++) {
+				keys[i] = in.readLong();
+			}
+			for(int i = 0; i < n; i++) {
+				out.writeInt(table.get(keys[i]));
+			}
+			out.flush();
+		}
+	}
+
+	/*
+	 * Adds up the counts of every record of a spill file, which may repeat a key across runs
+	 */
+	static NgramTable load(String path) throws IOException {
+		NgramTable table = new NgramTable();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path), BUFFER))) {
+			while(true) {
+				long key;
+				try {
+					key = in.readLong();
+				} catch (EOFException e) {
+					return table;
+				}
+				table.add(key, in.readInt());
+			}
+		}
+	}
+}
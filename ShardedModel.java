@@ -0,0 +1,406 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Good-Turing bigram model whose bigram counts are split across local worker
+ * processes, for corpora whose bigrams do not fit in one heap. Training streams
+ * the corpus once: the vocabulary and the unigrams are counted in this process,
+ * and each bigram goes to the spill file of the shard of its context word,
+ * written as sorted runs of (key, count) records. One ShardServer process per
+ * shard merges its runs and answers count lookups. The client routes every
+ * lookup to its shard and applies the Good-Turing discounts itself, from the
+ * summed shard histograms, so scores are those of Parser.getBigramModel().
+ *
+ * Lookups go through one connection per shard and are serialized. perplexity
+ * sends one batch per shard for the whole sequence.
+ */
+public class ShardedModel implements ScoringModel, Closeable {
+
+	// Bigram keys buffered per shard before they are sorted and spilled as a run
+	private static final int RUN_KEYS = 1 << 18;
+	private static final int BUFFER = 1 << 16;
+
+	private final Parser parser;
+	private final Shard[] shards;
+	private final double[] c_stars;
+	private final long bigramCount;
+
+	// Indexed by word id
+	private final boolean[] known;
+	private final double[] firstTerms;
+	private final double[] unseenTerms;
+	private final double[] contextCounts;
+
+	/*
+	 * Starts a worker per spill file over the vocabulary and unigrams of the parser,
+	 * which must hold the unigrams of the corpus the spill files were written from
+	 */
+	public ShardedModel(Parser parser, File[] spills, String workerHeap) throws IOException {
+		this.parser = parser;
+		parser.smoothUnigrams();
+
+		shards = new Shard[spills.length];
+		int[] counts = new int[Parser.GOOD_TURING_K + 2];
+		long total = 0;
+		try {
+			for(int s = 0; s < spills.length; s++) {
+				shards[s] = new Shard(spills[s], workerHeap);
+			}
+			for(Shard shard: shards) {
+				shard.ready(counts);
+				total += shard.size;
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+		bigramCount = total;
+		if(total > Integer.MAX_VALUE) {
+			close();
+			throw new IllegalStateException("Too many bigrams for the Good-Turing estimate: " + total);
+		}
+		c_stars = Parser.bigramStars(counts, (int) total, parser.getUnigrams().size());
+		double unseenCount = c_stars[0];
+
+		// The per word terms of BigramModel
+		Vocabulary vocabulary = parser.getVocabulary();
+		int words = vocabulary.size();
+		known = new boolean[words];
+		firstTerms = new double[words];
+		unseenTerms = new double[words];
+		contextCounts = new double[words];
+		SmoothedCounts gtunigrams = parser.getGTUnigrams();
+		NgramTrie trie = gtunigrams.getTrie();
+		double unigramSum = parser.getGTUnigramSum();
+		for(int word = 0; word < Math.min(words, trie.size(1)); word++) {
+			if(trie.find(1, -1, word) == -1) {
+				continue;
+			}
+			double gt = gtunigrams.get(word);
+			known[word] = true;
+			contextCounts[word] = gt;
+			firstTerms[word] = Math.log10(gt/unigramSum);
+			unseenTerms[word] = Math.log10(1/(unseenCount/gt));
+		}
+	}
+
+	/*
+	 * Counts a corpus into the given number of shards, spilled to files in the directory,
+	 * and starts their workers. workerHeap is the -Xmx of each worker, or null for the default.
+	 * "b" = bible, "h" = hotel
+	 */
+	public static ShardedModel train(String corpus, String type, int shardCount, File directory,
+			String workerHeap) throws IOException {
+		Parser parser = new Parser(corpus, 1);
+		SpillWriter[] writers = new SpillWriter[shardCount];
+		File[] spills = new File[shardCount];
+		try {
+			for(int s = 0; s < shardCount; s++) {
+				spills[s] = new File(directory, "shard-" + s + ".spill");
+				writers[s] = new SpillWriter(spills[s]);
+			}
+			new CorpusReader(corpus, type).readSentences(sentence -> parser.processSentenceUnigrams(sentence, key -> {
+				try {
+					writers[shard(NgramKey.context(key), shardCount)].add(key);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			for(SpillWriter writer: writers) {
+				if(writer != null) {
+					writer.close();
+				}
+			}
+		}
+		return new ShardedModel(parser, spills, workerHeap);
+	}
+
+	/*
+	 * Shard of the bigrams with the given context word
+	 */
+	static int shard(int context, int shardCount) {
+		int h = context * 0x9E3779B9;
+		return Integer.remainderUnsigned(h ^ (h >>> 16), shardCount);
+	}
+
+	/*
+	 * Parser holding the vocabulary and unigrams, for tokenizing text to score
+	 */
+	public Parser getParser() {
+		return parser;
+	}
+
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	public long getBigramCount() {
+		return bigramCount;
+	}
+
+	public int scoringId(String text, int start, int end) {
+		int id = parser.getVocabulary().id(text, start, end);
+		return (id == -1 || id >= known.length || !known[id]) ? Vocabulary.UNK : id;
+	}
+
+	public double term(int prev_word, int t) {
+		if(prev_word == -1 || t == Vocabulary.UNK || prev_word == Vocabulary.UNK) {
+			return term(prev_word, t, 0);
+		}
+		long key = NgramKey.pack(prev_word, t);
+		int count;
+		synchronized(this) {
+			count = shards[shard(prev_word, shards.length)].count(key);
+		}
+		return term(prev_word, t, count);
+	}
+
+	/*
+	 * Term of t after prev_word given the raw count of the bigram. Seen bigram
+	 * terms are computed here, as the shards only hold raw counts; the log10
+	 * is small next to the round trip to the shard.
+	 */
+	private double term(int prev_word, int t, int count) {
+		if(prev_word == -1) {
+			return firstTerms[t];
+		}
+		if(count > 0) {
+			double gt = (count < Parser.GOOD_TURING_K) ? c_stars[count] : count;
+			return Math.log10(1/(gt/contextCounts[prev_word]));
+		}
+		return unseenTerms[prev_word];
+	}
+
+	/*
+	 * Looks up every bigram of the sequence in one batch per shard
+	 */
+	public double perplexity(int[] ids, int size) {
+		int[] counts = new int[size];
+		int[][] positions = new int[shards.length][];
+		int[] batchSizes = new int[shards.length];
+		for(int s = 0; s < shards.length; s++) {
+			positions[s] = new int[16];
+		}
+		for(int a = 1; a < size; a++) {
+			if(ids[a] != Vocabulary.UNK && ids[a - 1] != Vocabulary.UNK) {
+				int s = shard(ids[a - 1], shards.length);
+				if(batchSizes[s] == positions[s].length) {
+					positions[s] = Arrays.copyOf(positions[s], batchSizes[s] * 2);
+				}
+				positions[s][batchSizes[s]++] = a;
+			}
+		}
+
+		synchronized(this) {
+			// Every shard gets its batch before any answer is read, so they look up in parallel
+			for(int s = 0; s < shards.length; s++) {
+				shards[s].send(ids, positions[s], batchSizes[s]);
+			}
+			for(int s = 0; s < shards.length; s++) {
+				shards[s].receive(counts, positions[s], batchSizes[s]);
+			}
+		}
+
+		double pp = 0;
+		int state = -1;
+		for(int a = 0; a < size; a++) {
+			pp += term(state, ids[a], counts[a]);
+			state = next(state, ids[a]);
+		}
+		return Math.pow(10, pp/size);
+	}
+
+	/*
+	 * Stops the workers. The spill files are left in place.
+	 */
+	public void close() {
+		for(Shard shard: shards) {
+			if(shard != null) {
+				shard.close();
+			}
+		}
+	}
+
+	/*
+	 * Connection to the worker process of one shard
+	 */
+	private static class Shard {
+
+		private final Process process;
+		private final DataOutputStream out;
+		private final DataInputStream in;
+		private int size;
+
+		Shard(File spill, String workerHeap) throws IOException {
+			List<String> command = new ArrayList<>();
+			command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+			if(workerHeap != null) {
+				command.add("-Xmx" + workerHeap);
+			}
+			command.add("-cp");
+			command.add(System.getProperty("java.class.path"));
+			command.add("ShardServer");
+			command.add(spill.getPath());
+			command.add(String.valueOf(Parser.GOOD_TURING_K + 1));
+			process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+			out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream(), BUFFER));
+			in = new DataInputStream(new BufferedInputStream(process.getInputStream(), BUFFER));
+		}
+
+		/*
+		 * Waits until the worker has loaded its shard and adds its N_c histogram to counts
+		 */
+		void ready(int[] counts) throws IOException {
+			size = in.readInt();
+			for(int c = 0; c < counts.length; c++) {
+				counts[c] += in.readInt();
+			}
+		}
+
+		int count(long key) {
+			try {
+				out.writeInt(1);
+				out.writeLong(key);
+				out.flush();
+				return in.readInt();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Shard worker failed", e);
+			}
+		}
+
+		/*
+		 * Sends the bigrams ending at the given positions of ids
+		 */
+		void send(int[] ids, int[] positions, int n) {
+			try {
+				out.writeInt(n);
+				for(int i = 0; i < n; i++) {
+					int a = positions[i];
+					out.writeLong(NgramKey.pack(ids[a - 1], ids[a]));
+				}
+				out.flush();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Shard worker failed", e);
+			}
+		}
+
+		void receive(int[] counts, int[] positions, int n) {
+			try {
+				for(int i = 0; i < n; i++) {
+					counts[positions[i]] = in.readInt();
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException("Shard worker failed", e);
+			}
+		}
+
+		void close() {
+			try {
+				out.writeInt(-1);
+				out.flush();
+				process.waitFor();
+			} catch (IOException e) {
+				process.destroy();
+			} catch (InterruptedException e) {
+				process.destroy();
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/*
+	 * Buffers the bigram keys of one shard and appends them to its spill file as
+	 * runs sorted by key, with each key written once per run with its count
+	 */
+	private static class SpillWriter {
+
+		private final DataOutputStream out;
+		private final long[] keys = new long[RUN_KEYS];
+		private int size = 0;
+
+		SpillWriter(File file) throws IOException {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER));
+		}
+
+		void add(long key) throws IOException {
+			keys[size++] = key;
+			if(size == keys.length) {
+				spill();
+			}
+		}
+
+		private void spill() throws IOException {
+			Arrays.sort(keys, 0, size);
+			for(int a = 0; a < size; ) {
+				int b = a + 1;
+				while(b < size && keys[b] == keys[a]) {
+					b++;
+				}
+				out.writeLong(keys[a]);
+				out.writeInt(b - a);
+				a = b;
+			}
+			size = 0;
+		}
+
+		void close() throws IOException {
+			spill();
+			out.close();
+		}
+	}
+
+	/*
+	 * Trains a sharded model and compares its perplexity with the in-heap bigram model.
+	 * Arguments: training corpus, corpus type, test corpus and optionally the number of shards.
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length < 3) {
+			System.out.println("Usage: java ShardedModel <train> <b|h|other> <test> [shards]");
+			return;
+		}
+		int shardCount = (args.length > 3) ? Integer.parseInt(args[3]) : 4;
+		File directory = Files.createTempDirectory("shards").toFile();
+
+		long start = System.nanoTime();
+		try (ShardedModel model = train(args[0], args[1], shardCount, directory, null)) {
+			long spilled = 0;
+			for(File spill: directory.listFiles()) {
+				spilled += spill.length();
+			}
+			System.out.printf("sharded: %d shards, %d bigrams, %d KB spilled, %.0f ms%n", shardCount,
+					model.getBigramCount(), spilled / 1024, (System.nanoTime() - start) / 1e6);
+
+			StringBuilder test = new StringBuilder();
+			new CorpusReader(args[2], args[1]).readLines(test::append);
+			start = System.nanoTime();
+			double sharded = model.getParser().computePerplexity(test.toString(), model);
+			System.out.printf("sharded perplexity: %s, %.0f ms%n", sharded, (System.nanoTime() - start) / 1e6);
+
+			Parser parser = new Parser(args[0], 2);
+			parser.processCorpus(args[1], "");
+			parser.smoothUnigrams();
+			parser.smoothBigrams();
+			System.out.println("in-heap perplexity: " + parser.computeBigramPerplexity(test.toString()));
+		} finally {
+			for(File spill: directory.listFiles()) {
+				spill.delete();
+			}
+			directory.delete();
+		}
+	}
+}
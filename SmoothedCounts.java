@@ -0,0 +1,57 @@
+/*
+ * Good-Turing smoothed counts of one level of an NgramTrie, applied at lookup time:
+ * an entry counted c times reads c_stars[c] below the discount bound and c itself
+ * above it. Only the c* table is stored, so the smoothed counts take no memory per
+ * entry. The trie is a snapshot of the counts, so smooth again after counting more text.
+ */
+public class SmoothedCounts {
+
+	private final NgramTrie trie;
+	private final int n;
+	private final double[] c_stars;
+
+	/*
+	 * Counts below c_stars.length are replaced by c_stars[count]
+	 */
+	SmoothedCounts(NgramTrie trie, int n, double[] c_stars) {
+		this.trie = trie;
+		this.n = n;
+		this.c_stars = c_stars.clone();
+	}
+
+	/*
+	 * Smoothed count of the trie entry, the word id for unigrams
+	 */
+	public double get(int node) {
+		return smooth(trie.count(n, node));
+	}
+
+	/*
+	 * Smoothed count of an n-gram counted the given number of times
+	 */
+	public double smooth(int unsmoothedCount) {
+		return (unsmoothedCount < c_stars.length) ? c_stars[unsmoothedCount] : unsmoothedCount;
+	}
+
+	/*
+	 * Number of entries of the level, the vocabulary size for unigrams
+	 */
+	public int size() {
+		return trie.size(n);
+	}
+
+	public NgramTrie getTrie() {
+		return trie;
+	}
+
+	/*
+	 * Copies the smoothed counts into an array indexed by trie entry
+	 */
+	public double[] toArray() {
+		double[] gt = new double[size()];
+		for(int node = 0; node < gt.length; node++) {
+			gt[node] = get(node);
+		}
+		return gt;
+	}
+}
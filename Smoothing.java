@@ -0,0 +1,6 @@
+/*
+ * How a Parser turns its counts into a scoring model
+ */
+public enum Smoothing {
+	GOOD_TURING, KATZ, KNESER_NEY
+}
@@ -0,0 +1,305 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/*
+ * External-memory counting for a Parser whose counts outgrow a memory budget.
+ * Once the count tables hold more bytes than the budget they are written out
+ * as one run per order, each n-gram as its n word ids and its count, sorted by
+ * words, and counting starts over with empty tables. At the end the runs of
+ * each order are k-way merged, adding up the counts of equal n-grams, into the
+ * final counts. Table ids are assigned in merge order instead of corpus order,
+ * but the counts are the same as counting in memory.
+ */
+public class SpillingCounter {
+
+	private static final int BUFFER = 1 << 16;
+
+	private final long budget;
+	private final File directory;
+	// Run files by order
+	private final List<List<File>> runs = new ArrayList<>();
+	private long spilledBytes = 0;
+	private int spills = 0;
+	private long mergeNanos = 0;
+
+	/*
+	 * Spills counts larger than budget bytes to temporary files in the directory
+	 */
+	public SpillingCounter(long budget, File directory) {
+		this.budget = budget;
+		this.directory = directory;
+		for(int n = 0; n <= NgramCounts.MAX_ORDER; n++) {
+			runs.add(new ArrayList<File>());
+		}
+	}
+
+	public boolean overBudget(NgramCounts counts) {
+		return counts.memoryBytes() > budget;
+	}
+
+	/*
+	 * True once counts were spilled and not merged yet
+	 */
+	public boolean hasRuns() {
+		for(List<File> order: runs) {
+			if(!order.isEmpty()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * Writes the counts of orders 1 to order as one sorted run per counted order
+	 */
+	public void spill(NgramCounts counts, int order) throws IOException {
+		for(int n = 1; n <= order; n++) {
+			NgramTable table = counts.table(n);
+			int size = table.size();
+			if(size == 0) {
+				continue;
+			}
+			int[] words = new int[size * n];
+			int[] ngram = new int[n];
+			for(int id = 0; id < size; id++) {
+				counts.words(n, id, ngram);
+				System.arraycopy(ngram, 0, words, id * n, n);
+			}
+			int[] sorted = sortedIds(words, n, size);
+
+			File run = File.createTempFile("ngrams-" + n + "-", ".run", directory);
+			runs.get(n).add(run);
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), BUFFER))) {
+				for(int id: sorted) {
+					for(int a = 0; a < n; a++) {
+						out.writeInt(words[id * n + a]);
+					}
+					out.writeInt(table.count(id));
+				}
+			}
+			spilledBytes += run.length();
+		}
+		spills++;
+	}
+
+	/*
+	 * Merges the runs of orders 1 to order into new counts and deletes them
+	 */
+	public NgramCounts merge(int order) throws IOException {
+		long start = System.nanoTime();
+		NgramCounts merged = new NgramCounts();
+		int[] ngram = new int[order];
+		for(int n = 1; n <= order; n++) {
+			final int length = n;
+			PriorityQueue<RunReader> queue = new PriorityQueue<>((a, b) -> compare(a.words, 0, b.words, 0, length));
+			try {
+				for(File run: runs.get(n)) {
+					RunReader reader = new RunReader(run, n);
+					if(reader.next()) {
+						queue.add(reader);
+					} else {
+						reader.close();
+					}
+				}
+
+				// Equal n-grams come out of the queue one after the other
+				boolean pending = false;
+				int count = 0;
+				while(!queue.isEmpty()) {
+					RunReader reader = queue.poll();
+					if(pending && compare(ngram, 0, reader.words, 0, n) == 0) {
+						count += reader.count;
+					} else {
+						if(pending) {
+							merged.add(ngram, n, count);
+						}
+						System.arraycopy(reader.words, 0, ngram, 0, n);
+						count = reader.count;
+						pending = true;
+					}
+					if(reader.next()) {
+						queue.add(reader);
+					} else {
+						reader.close();
+					}
+				}
+				if(pending) {
+					merged.add(ngram, n, count);
+				}
+			} finally {
+				for(RunReader reader: queue) {
+					reader.close();
+				}
+			}
+			for(File run: runs.get(n)) {
+				Files.deleteIfExists(run.toPath());
+			}
+			runs.get(n).clear();
+		}
+		mergeNanos += System.nanoTime() - start;
+		return merged;
+	}
+
+	/*
+	 * Bytes written to run files so far
+	 */
+	public long getSpilledBytes() {
+		return spilledBytes;
+	}
+
+	public int getSpillCount() {
+		return spills;
+	}
+
+	public long getMergeMillis() {
+		return mergeNanos / 1000000;
+	}
+
+	public String report() {
+		return "Spilled " + spills + " times, " + (spilledBytes / 1024) + " KB in all, merged in " + getMergeMillis() + " ms";
+	}
+
+	/*
+	 * Ids 0 to size - 1 sorted by their n words in words[id * n, id * n + n), by merge sort
+	 */
+	private static int[] sortedIds(int[] words, int n, int size) {
+		int[] ids = new int[size];
+		for(int id = 0; id < size; id++) {
+			ids[id] = id;
+		}
+		int[] buffer = new int[size];
+		for(int width = 1; width < size; width *= 2) {
+			for(int low = 0; low < size; low += 2 * width) {
+				int middle = Math.min(low + width, size);
+				int high = Math.min(low + 2 * width, size);
+				int a = low;
+				int b = middle;
+				for(int k = low; k < high; k++) {
+					if(a < middle && (b >= high || compare(words, ids[a] * n, words, ids[b] * n, n) <= 0)) {
+						buffer[k] = ids[a++];
+					} else {
+						buffer[k] = ids[b++];
+					}
+				}
+			}
+			int[] swap = ids;
+			ids = buffer;
+			buffer = swap;
+		}
+		return ids;
+	}
+
+	private static int compare(int[] x, int from, int[] y, int yFrom, int n) {
+		for(int a = 0; a < n; a++) {
+			int c = Integer.compare(x[from + a], y[yFrom + a]);
+			if(c != 0) {
+				return c;
+			}
+		}
+		return 0;
+	}
+
+	/*
+	 * Reads the records of one run in order
+	 */
+	private static class RunReader {
+
+		private final DataInputStream in;
+		private final int[] words;
+		private int count;
+
+		RunReader(File run, int n) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), BUFFER));
+			words = new int[n];
+		}
+
+		/*
+		 * Moves to the next record, returns false at the end of the run
+		 */
+		boolean next() throws IOException {
+			try {
+				words[0] = in.readInt();
+			} catch (EOFException e) {
+				return false;
+			}
+			for(int a = 1; a < words.length; a++) {
+				words[a] = in.readInt();
+			}
+			count = in.readInt();
+			return true;
+		}
+
+		void close() throws IOException {
+			in.close();
+		}
+	}
+
+	/*
+	 * Trains a parser with and without a memory budget and compares the counts.
+	 * Arguments: corpus file, corpus type, budget in KB and optionally the n-gram order.
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length < 3) {
+			System.out.println("Usage: java SpillingCounter <corpus> <b|h|other> <budget KB> [order]");
+			return;
+		}
+		int order = (args.length > 3) ? Integer.parseInt(args[3]) : 3;
+		long budget = Long.parseLong(args[2]) * 1024;
+
+		long start = System.nanoTime();
+		Parser memory = new Parser(args[0], order);
+		memory.processCorpus(args[1], "");
+		System.out.printf("in memory: %.0f ms, %d KB of tables%n", (System.nanoTime() - start) / 1e6,
+				memory.getNgrams().memoryBytes() / 1024);
+
+		File directory = Files.createTempDirectory("spill").toFile();
+		try {
+			start = System.nanoTime();
+			Parser spilling = new Parser(args[0], order);
+			spilling.setMemoryBudget(budget, directory);
+			spilling.processCorpus(args[1], "");
+			System.out.printf("budget %d KB: %.0f ms%n", budget / 1024, (System.nanoTime() - start) / 1e6);
+
+			boolean same = true;
+			for(int n = 1; n <= order; n++) {
+				same &= sameCounts(memory.getNgrams(), spilling.getNgrams(), n);
+			}
+			System.out.println(same ? "Counts match." : "Counts differ!");
+		} finally {
+			directory.delete();
+		}
+	}
+
+	private static boolean sameCounts(NgramCounts x, NgramCounts y, int n) {
+		if(x.table(n).size() != y.table(n).size()) {
+			return false;
+		}
+		int[] ngram = new int[n];
+		for(int id = 0; id < x.table(n).size(); id++) {
+			x.words(n, id, ngram);
+			int found = ngram[0];
+			for(int a = 2; a <= n && found != -1; a++) {
+				found = y.find(a, found, ngram[a - 1]);
+			}
+			if(found == -1 || n == 1 && !y.table(1).contains(found)) {
+				return false;
+			}
+			int count = (n == 1) ? y.table(1).get(found) : y.table(n).count(found);
+			if(count != x.table(n).count(id)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,168 @@
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/*
+ * Perplexity of a test corpus under several models in one streaming pass.
+ * The corpus is read with CorpusReader.readSentences and each sentence is
+ * tokenized in place and scored against every model before the next one is
+ * read, so memory does not grow with the size of the corpus. Each model gets
+ * the perplexity Parser.computePerplexity gives on the whole cleaned corpus.
+ * Running perplexities and throughput can be printed as the pass goes.
+ * Not thread-safe; use one instance per pass.
+ */
+public class StreamingEvaluator implements Consumer<String> {
+
+	private final String[] names;
+	private final ScoringModel[] models;
+	// Sum of the perplexity terms and current state, by model
+	private final double[] sums;
+	private final int[] states;
+	private final Tokenizer tokenizer = new Tokenizer();
+	private long tokens;
+	private long sentences;
+
+	private PrintStream progress = null;
+	private long interval;
+	private long started;
+	private long reported;
+
+	public StreamingEvaluator(String[] names, ScoringModel[] models) {
+		if(names.length != models.length) {
+			throw new IllegalArgumentException("Need one name per model");
+		}
+		this.names = names;
+		this.models = models;
+		sums = new double[models.length];
+		states = new int[models.length];
+	}
+
+	/*
+	 * Prints the running perplexities to out every so many seconds during evaluate
+	 */
+	public void setProgress(PrintStream out, long seconds) {
+		progress = out;
+		interval = seconds * 1000000000L;
+	}
+
+	/*
+	 * Scores a corpus file against every model and returns their perplexities.
+	 * "b" = bible, "h" = hotel, anything else is read as is
+	 */
+	public double[] evaluate(String filename, String type) throws IOException {
+		Arrays.fill(sums, 0);
+		Arrays.fill(states, -1);
+		tokens = 0;
+		sentences = 0;
+		started = System.nanoTime();
+		reported = started;
+
+		new CorpusReader(filename, type).readSentences(this);
+
+		if(progress != null) {
+			report(progress);
+		}
+		double[] perplexities = new double[models.length];
+		for(int m = 0; m < models.length; m++) {
+			perplexities[m] = perplexity(m);
+		}
+		return perplexities;
+	}
+
+	/*
+	 * Scores one trimmed sentence, with its start and end, against every model
+	 */
+	public void accept(String sentence) {
+		int size = tokenizer.tokenize(sentence);
+		for(int m = 0; m < models.length; m++) {
+			ScoringModel model = models[m];
+			double pp = sums[m];
+			int state = states[m];
+			for(int a = -1; a <= size; a++) {
+				int t;
+				if(a == -1) {
+					t = Vocabulary.START;
+				} else if(a == size) {
+					t = Vocabulary.END;
+				} else {
+					t = model.scoringId(sentence, tokenizer.start(a), tokenizer.end(a));
+				}
+				pp += model.term(state, t);
+				state = model.next(state, t);
+			}
+			sums[m] = pp;
+			states[m] = state;
+		}
+		tokens += size + 2;
+		sentences++;
+
+		if(progress != null && (sentences & 63) == 0 && System.nanoTime() - reported >= interval) {
+			report(progress);
+		}
+	}
+
+	/*
+	 * Perplexity of the model over the tokens scored so far
+	 */
+	public double perplexity(int model) {
+		return Math.pow(10, sums[model]/tokens);
+	}
+
+	public long getTokenCount() {
+		return tokens;
+	}
+
+	private void report(PrintStream out) {
+		long now = System.nanoTime();
+		reported = now;
+		StringBuilder line = new StringBuilder();
+		line.append(String.format("%,d sentences, %,d tokens, %.0f tokens/s", sentences, tokens,
+				tokens / Math.max((now - started) / 1e9, 1e-9)));
+		for(int m = 0; m < models.length; m++) {
+			line.append(String.format(", %s %.4f", names[m], perplexity(m)));
+		}
+		out.println(line);
+	}
+
+	/*
+	 * Trains on one corpus and evaluates another against the Good-Turing models of
+	 * orders 1 to the given order and the Katz and Kneser-Ney models of orders 2 and up.
+	 */
+	public static void main(String[] args) {
+		if(args.length < 3) {
+			System.out.println("Usage: java StreamingEvaluator <train> <test> <b|h|other> [order] [report seconds]");
+			return;
+		}
+		int order = (args.length > 3) ? Integer.parseInt(args[3]) : 2;
+		long seconds = (args.length > 4) ? Long.parseLong(args[4]) : 5;
+
+		Parser parser = new Parser(args[0], order);
+		parser.processCorpus(args[2], "");
+		parser.smoothNgrams();
+		parser.compact();
+
+		List<String> names = new ArrayList<String>();
+		List<ScoringModel> models = new ArrayList<ScoringModel>();
+		for(Smoothing smoothing: Smoothing.values()) {
+			parser.setSmoothing(smoothing);
+			for(int n = (smoothing == Smoothing.GOOD_TURING) ? 1 : 2; n <= order; n++) {
+				names.add(smoothing.name().toLowerCase().replace('_', '-') + "-" + n);
+				models.add(parser.getScoringModel(n));
+			}
+		}
+
+		StreamingEvaluator evaluator = new StreamingEvaluator(names.toArray(new String[0]), models.toArray(new ScoringModel[0]));
+		evaluator.setProgress(System.out, seconds);
+		try {
+			evaluator.evaluate(args[1], args[2]);
+		} catch (FileNotFoundException e) {
+			System.out.println("File not found.");
+		} catch (IOException e) {
+			System.out.println("An error occured while reading the file \"" + args[1] + "\"");
+		}
+	}
+}
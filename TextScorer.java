@@ -0,0 +1,55 @@
+import java.text.BreakIterator;
+import java.util.Locale;
+
+/*
+ * Computes the perplexity of text under a ScoringModel the way
+ * Parser.computeBigramPerplexity does, without building an id array or
+ * copying sentences. With a model that scores without allocating
+ * (MappedModel) a chunk is scored without creating garbage apart from
+ * the sentence iterator's view of the text.
+ * Not thread-safe; use one instance per thread.
+ */
+public class TextScorer {
+
+	private static final Metrics.Timer SCORE = Metrics.timer("scorer.chunk");
+	private static final Metrics.Counter TOKENS = Metrics.counter("scorer.tokens");
+
+	private final ScoringModel model;
+	private final Tokenizer tokenizer = new Tokenizer();
+	private final BreakIterator iterator = BreakIterator.getSentenceInstance(Locale.US);
+
+	public TextScorer(ScoringModel model) {
+		this.model = model;
+	}
+
+	public double perplexity(String chunk) {
+		double pp = 0;
+		int state = -1;
+		int token_count = 0;
+		long time = SCORE.start();
+
+		iterator.setText(chunk);
+		int start = iterator.first();
+		for(int end = iterator.next(); end != BreakIterator.DONE; start = end, end = iterator.next()) {
+			int size = tokenizer.tokenizeTrimmed(chunk, start, end);
+
+			// The sentence start, its words and the sentence end
+			for(int a = -1; a <= size; a++) {
+				int t;
+				if(a == -1) {
+					t = Vocabulary.START;
+				} else if(a == size) {
+					t = Vocabulary.END;
+				} else {
+					t = model.scoringId(chunk, tokenizer.start(a), tokenizer.end(a));
+				}
+				pp += model.term(state, t);
+				state = model.next(state, t);
+				token_count++;
+			}
+		}
+		SCORE.stop(time);
+		TOKENS.add(token_count);
+		return Math.pow(10, pp/token_count);
+	}
+}
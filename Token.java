@@ -1,52 +0,0 @@
-public class Token {
-	
-	private String val;
-	private TokenType type;
-	
-	public Token(String s, TokenType t) {
-		val = s;
-		type = t;
-	}
-	
-	public TokenType getType() {
-		return type;
-	}
-	
-	public String getWord(){
-		return val;
-	}
-
-	@Override
-	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + ((type == null) ? 0 : type.hashCode());
-		result = prime * result + ((val == null) ? 0 : val.hashCode());
-		return result;
-	}
-
-	@Override
-	public boolean equals(Object obj) {
-		if (this == obj)
-			return true;
-		if (obj == null)
-			return false;
-		if (getClass() != obj.getClass())
-			return false;
-		Token other = (Token) obj;
-		if (type != other.type)
-			return false;
-		if (val == null) {
-			if (other.val != null)
-				return false;
-		} else if (!val.equals(other.val))
-			return false;
-		return true;
-	}
-	
-	public String printVal() {
-		if (type == TokenType.START) return "START";
-		else if (type == TokenType.END) return "END";
-		else return val;
-	}
-}
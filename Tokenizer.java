@@ -0,0 +1,140 @@
+import java.util.Arrays;
+
+public class Tokenizer {
+
+	private String text;
+	private int[] starts = new int[64];
+	private int[] ends = new int[64];
+	private int count;
+
+	/*
+	 * Splits a sentence into word and punctuation tokens in a single scan.
+	 * Each of ( ) , ! . ? ; : is a token of its own and whitespace separates
+	 * the rest. The result is the same as the former
+	 * replaceAll("([(),!.?;:])", " $1 ").split("\\s+"), including the empty
+	 * token it produced for an empty sentence or one starting with punctuation.
+	 * Returns the number of tokens, which stay valid until the next call.
+	 */
+	public int tokenize(String sentence) {
+		return tokenize(sentence, 0, sentence.length());
+	}
+
+	/*
+	 * Tokenizes text[from, to) like tokenize(text.substring(from, to)) without copying it.
+	 * Token offsets are into text.
+	 */
+	public int tokenize(String text, int from, int to) {
+		this.text = text;
+		count = 0;
+
+		if(from == to) {
+			add(from, from);
+			return count;
+		}
+
+		int start = -1;
+		for(int a = from; a < to; a++) {
+			char c = text.charAt(a);
+			if(isWhitespace(c)) {
+				if(start != -1) add(start, a);
+				start = -1;
+			} else if(isPunctuation(c)) {
+				if(start != -1) add(start, a);
+				add(a, a + 1);
+				start = -1;
+			} else if(start == -1) {
+				start = a;
+			}
+		}
+		if(start != -1) add(start, to);
+
+		// split() kept a leading empty string when the text began with a separator
+		char first = text.charAt(from);
+		if(count > 0 && (isWhitespace(first) || isPunctuation(first))) {
+			ensureCapacity(count + 1);
+			System.arraycopy(starts, 0, starts, 1, count);
+			System.arraycopy(ends, 0, ends, 1, count);
+			starts[0] = from;
+			ends[0] = from;
+			count++;
+		}
+		return count;
+	}
+
+	/*
+	 * Tokenizes text[from, to) like tokenize(text.substring(from, to).trim()) without copying it
+	 */
+	public int tokenizeTrimmed(String text, int from, int to) {
+		while(from < to && text.charAt(from) <= ' ') from++;
+		while(to > from && text.charAt(to - 1) <= ' ') to--;
+		return tokenize(text, from, to);
+	}
+
+	/*
+	 * Narrows every token the way String.trim() would
+	 */
+	public void trimTokens() {
+		for(int i = 0; i < count; i++) {
+			int start = starts[i];
+			int end = ends[i];
+			while(start < end && text.charAt(start) <= ' ') start++;
+			while(end > start && text.charAt(end - 1) <= ' ') end--;
+			starts[i] = start;
+			ends[i] = end;
+		}
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public int start(int i) {
+		return starts[i];
+	}
+
+	public int end(int i) {
+		return ends[i];
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	/*
+	 * Returns the i-th token of the last sentence as a string
+	 */
+	public String word(int i) {
+		return text.substring(starts[i], ends[i]);
+	}
+
+	public static boolean isPunctuation(char c) {
+		switch(c) {
+		case '(': case ')': case ',': case '!': case '.': case '?': case ';': case ':':
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/*
+	 * The characters matched by \s
+	 */
+	public static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
+	private void add(int start, int end) {
+		ensureCapacity(count + 1);
+		starts[count] = start;
+		ends[count] = end;
+		count++;
+	}
+
+	private void ensureCapacity(int size) {
+		if(size > starts.length) {
+			int newLength = Math.max(size, starts.length * 2);
+			starts = Arrays.copyOf(starts, newLength);
+			ends = Arrays.copyOf(ends, newLength);
+		}
+	}
+}
@@ -0,0 +1,150 @@
+import java.util.Arrays;
+
+public class Vocabulary {
+
+	// Reserved ids for the sentence boundaries and unknown words
+	public static final int START = 0;
+	public static final int END = 1;
+	public static final int UNK = 2;
+	private static final int RESERVED = 3;
+
+	private static final int EMPTY = -1;
+
+	private String[] words = new String[64];
+	private int[] slots = new int[128];
+	private int size = RESERVED;
+
+	public Vocabulary() {
+		Arrays.fill(slots, EMPTY);
+	}
+
+	/*
+	 * Returns the id of the word, adding it to the vocabulary if it is new
+	 */
+	public int intern(String word) {
+		return intern(word, 0, word.length());
+	}
+
+	/*
+	 * Returns the id of text[start, end), adding it to the vocabulary if it is new.
+	 * A string is only allocated the first time a word is seen.
+	 */
+	public int intern(String text, int start, int end) {
+		int hash = hash(text, start, end);
+		int slot = findSlot(text, start, end, hash);
+		if(slots[slot] != EMPTY) {
+			return slots[slot];
+		}
+
+		if(size == words.length) {
+			words = Arrays.copyOf(words, size * 2);
+		}
+		int id = size++;
+		words[id] = text.substring(start, end);
+		slots[slot] = id;
+
+		// Keep the table at most half full
+		if((size - RESERVED) * 2 > slots.length) {
+			rehash(slots.length * 2);
+		}
+		return id;
+	}
+
+	/*
+	 * Returns the id of the word, or -1 if it is not in the vocabulary
+	 */
+	public int id(String word) {
+		return id(word, 0, word.length());
+	}
+
+	/*
+	 * Returns the id of text[start, end), or -1 if it is not in the vocabulary
+	 */
+	public int id(String text, int start, int end) {
+		return slots[findSlot(text, start, end, hash(text, start, end))];
+	}
+
+	/*
+	 * Returns the word of a word id, or null for the reserved ids
+	 */
+	public String word(int id) {
+		return words[id];
+	}
+
+	public TokenType type(int id) {
+		switch(id) {
+		case START:
+			return TokenType.START;
+		case END:
+			return TokenType.END;
+		case UNK:
+			return TokenType.UNK;
+		default:
+			return TokenType.WORD;
+		}
+	}
+
+	public String printVal(int id) {
+		switch(id) {
+		case START:
+			return "START";
+		case END:
+			return "END";
+		case UNK:
+			return "UNK";
+		default:
+			return words[id];
+		}
+	}
+
+	/*
+	 * Number of ids in use, including the reserved ones
+	 */
+	public int size() {
+		return size;
+	}
+
+	private int findSlot(String text, int start, int end, int hash) {
+		int mask = slots.length - 1;
+		int length = end - start;
+		for(int slot = hash & mask; ; slot = (slot + 1) & mask) {
+			int id = slots[slot];
+			if(id == EMPTY) {
+				return slot;
+			}
+			String word = words[id];
+			if(word.length() == length && word.regionMatches(0, text, start, length)) {
+				return slot;
+			}
+		}
+	}
+
+	private void rehash(int capacity) {
+		slots = new int[capacity];
+		Arrays.fill(slots, EMPTY);
+		int mask = capacity - 1;
+		for(int id = RESERVED; id < size; id++) {
+			int slot = mix(words[id].hashCode()) & mask;
+			while(slots[slot] != EMPTY) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = id;
+		}
+	}
+
+	/*
+	 * Same as String.hashCode() of the substring, followed by mixing
+	 */
+	static int hash(String text, int start, int end) {
+		int h = 0;
+		for(int a = start; a < end; a++) {
+			h = 31 * h + text.charAt(a);
+		}
+		return mix(h);
+	}
+
+	static int mix(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
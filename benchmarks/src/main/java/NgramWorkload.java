@@ -0,0 +1,166 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.BreakIterator;
+import java.util.Locale;
+import java.util.Random;
+
+import bench.Workload;
+
+/*
+ * Workload of the JMH benchmarks over ZipfText corpora. It lives in the default
+ * package with the sources it exercises, see bench.Workload.
+ */
+public class NgramWorkload implements Workload {
+
+	private static final int VOCABULARY = 20000;
+
+	private String train;
+	private String test;
+	private long testTokens;
+	private Parser parser;
+
+	private File directory;
+	private File trainReviews;
+	private File testReviews;
+	private int testReviewCount;
+
+	public void prepare(int sentences, long seed) throws IOException {
+		ZipfText source = new ZipfText(VOCABULARY, seed);
+		train = source.sentences(sentences);
+		test = source.sentences(Math.max(sentences / 10, 1));
+		testTokens = tokens(test);
+
+		parser = new Parser(null, 3);
+		parser.processChunk(train);
+		parser.smoothNgrams();
+		checkOffHeapModel();
+
+		writeReviews(sentences, seed);
+	}
+
+	/*
+	 * The off-heap model must score the test text exactly like the heap model,
+	 * including the empty word of the sentences that start with a parenthesis
+	 */
+	private void checkOffHeapModel() {
+		if(parser.getVocabulary().id("", 0, 0) == -1) {
+			throw new IllegalStateException("No sentence of the training text starts with punctuation");
+		}
+		double heap = new TextScorer(parser.getBigramModel()).perplexity(test);
+		double offHeap = new TextScorer(parser.getOffHeapModel()).perplexity(test);
+		if(heap != offHeap) {
+			throw new IllegalStateException("Off-heap perplexity " + offHeap + " differs from heap perplexity " + heap);
+		}
+	}
+
+	/*
+	 * Review files in the hotel corpus format, with the deceptive reviews drawn
+	 * from shifted ranks so the two classes differ
+	 */
+	private void writeReviews(int sentences, long seed) throws IOException {
+		ZipfText source = new ZipfText(VOCABULARY, seed);
+		StringBuilder trainText = new StringBuilder();
+		StringBuilder testText = new StringBuilder();
+		int reviews = Math.max(sentences / 5, 2);
+		testReviewCount = Math.max(reviews / 10, 1);
+		Random random = new Random(seed);
+		for(int r = 0; r < reviews + testReviewCount; r++) {
+			boolean truthful = random.nextBoolean();
+			StringBuilder out = (r < reviews) ? trainText : testText;
+			out.append((r < reviews) ? (truthful ? "1,0," : "0,0,") : "?,?;\"");
+			for(int s = 1 + random.nextInt(8); s > 0; s--) {
+				source.appendSentence(out, truthful ? 0 : 7);
+			}
+			out.append('\n');
+		}
+
+		directory = Files.createTempDirectory("benchmark").toFile();
+		trainReviews = new File(directory, "reviews.train");
+		testReviews = new File(directory, "reviews.test");
+		Files.write(trainReviews.toPath(), trainText.toString().getBytes(StandardCharsets.UTF_8));
+		Files.write(testReviews.toPath(), testText.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	public void close() {
+		trainReviews.delete();
+		testReviews.delete();
+		directory.delete();
+	}
+
+	public long trainingChars() {
+		return train.length();
+	}
+
+	public long testTokens() {
+		return testTokens;
+	}
+
+	public int testReviews() {
+		return testReviewCount;
+	}
+
+	public Object train() {
+		Parser trained = new Parser(null, 3);
+		trained.processChunk(train);
+		return trained;
+	}
+
+	public Object smoothBigrams() {
+		parser.smoothBigrams();
+		return parser.getGTBigrams();
+	}
+
+	public Object smoothTrigrams() {
+		parser.smoothTrigrams();
+		return parser.getGTTrigrams();
+	}
+
+	public double bigramPerplexity() {
+		return parser.computeBigramPerplexity(test);
+	}
+
+	public int classifyReviews() throws IOException {
+		ScoringModel[] models = HotelPredictor.loadModels(trainReviews.getPath(), null, Smoothing.GOOD_TURING, 2);
+		LineCounter lines = new LineCounter();
+		int threads = Runtime.getRuntime().availableProcessors();
+		new ReviewClassifier(models[0], models[1], threads).classifyFile(testReviews.getPath(), new PrintStream(lines));
+		return lines.count;
+	}
+
+	public String generateSentence(Random random) {
+		return Generator.randomBigramSentence(parser.getTrie(), parser.getVocabulary(), random);
+	}
+
+	/*
+	 * Number of terms computeBigramPerplexity scores, with the START and END of every sentence
+	 */
+	private static long tokens(String text) {
+		Tokenizer tokenizer = new Tokenizer();
+		BreakIterator iterator = BreakIterator.getSentenceInstance(Locale.US);
+		iterator.setText(text);
+		long count = 0;
+		int start = iterator.first();
+		for(int end = iterator.next(); end != BreakIterator.DONE; start = end, end = iterator.next()) {
+			count += tokenizer.tokenizeTrimmed(text, start, end) + 2;
+		}
+		return count;
+	}
+
+	/*
+	 * Counts the lines written to it and drops them
+	 */
+	private static class LineCounter extends OutputStream {
+
+		int count = 0;
+
+		public void write(int b) {
+			if(b == '\n') {
+				count++;
+			}
+		}
+	}
+}
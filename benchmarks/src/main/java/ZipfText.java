@@ -0,0 +1,109 @@
+import java.util.Random;
+
+/*
+ * Synthetic English-like text for the benchmarks. Words are drawn from a fixed
+ * vocabulary with Zipf-distributed frequencies, so a few words are very
+ * common and most are rare, like in real corpora. Each word also depends a
+ * little on the previous one, so bigram counts are not just products of
+ * unigram counts. The same seed always gives the same text.
+ */
+public class ZipfText {
+
+	private static final double EXPONENT = 1.07;
+
+	private final Random random;
+	private final String[] words;
+	// Cumulative probability of ranks 0 to r
+	private final double[] cumulative;
+
+	public ZipfText(int vocabularySize, long seed) {
+		random = new Random(seed);
+		words = new String[vocabularySize];
+		cumulative = new double[vocabularySize];
+		double sum = 0;
+		for(int r = 0; r < vocabularySize; r++) {
+			words[r] = word(r);
+			sum += 1 / Math.pow(r + 1, EXPONENT);
+			cumulative[r] = sum;
+		}
+		for(int r = 0; r < vocabularySize; r++) {
+			cumulative[r] /= sum;
+		}
+	}
+
+	/*
+	 * Appends a sentence of 4 to 24 words ending with a period. One in 16 is
+	 * in parentheses, so some sentences start with punctuation as in real text.
+	 * Words of the given offset are more likely, which lets two instances
+	 * sharing a seed stand for two classes of text.
+	 */
+	public void appendSentence(StringBuilder text, int offset) {
+		int length = 4 + random.nextInt(21);
+		boolean aside = random.nextInt(16) == 0;
+		if(aside) {
+			text.append('(');
+		}
+		int previous = 0;
+		for(int a = 0; a < length; a++) {
+			int rank = rank();
+			// Follow the previous word with a neighbour now and then
+			if(random.nextInt(4) == 0) {
+				rank = (previous + 1 + rank % 8) % words.length;
+			}
+			if(offset != 0 && random.nextInt(3) == 0) {
+				rank = (rank + offset) % words.length;
+			}
+			previous = rank;
+			String word = words[rank];
+			if(a == 0) {
+				text.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+			} else {
+				text.append(' ').append(word);
+			}
+		}
+		text.append(aside ? "). " : ". ");
+	}
+
+	/*
+	 * Text of the given number of sentences
+	 */
+	public String sentences(int count) {
+		StringBuilder text = new StringBuilder(count * 80);
+		for(int s = 0; s < count; s++) {
+			appendSentence(text, 0);
+		}
+		return text.toString();
+	}
+
+	private int rank() {
+		double u = random.nextDouble();
+		int low = 0;
+		int high = cumulative.length - 1;
+		while(low < high) {
+			int middle = (low + high) >>> 1;
+			if(cumulative[middle] < u) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/*
+	 * Pronounceable word for a rank, short for frequent ranks
+	 */
+	private static String word(int rank) {
+		final String consonants = "bcdfghjklmnprstvwz";
+		final String vowels = "aeiou";
+		StringBuilder word = new StringBuilder();
+		int r = rank;
+		do {
+			word.append(consonants.charAt(r % consonants.length()));
+			r /= consonants.length();
+			word.append(vowels.charAt(r % vowels.length()));
+			r /= vowels.length();
+		} while(r > 0);
+		return word.toString();
+	}
+}
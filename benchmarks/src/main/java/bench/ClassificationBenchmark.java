@@ -0,0 +1,56 @@
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * HotelPredictor end to end: training both class models on a review file and
+ * classifying a test file, reported per call and per test review.
+ * Errors propagate, so a failing run fails the benchmark instead of being timed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class ClassificationBenchmark {
+
+	/*
+	 * Number of test reviews classified, reported by JMH as a secondary result
+	 */
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Reviews {
+
+		public long reviews;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			reviews = 0;
+		}
+	}
+
+	@Benchmark
+	public void hotelPredictor(Corpus corpus, Reviews reviews, Blackhole blackhole) throws IOException {
+		int labels = corpus.workload.classifyReviews();
+		if(labels != corpus.workload.testReviews()) {
+			throw new IllegalStateException("Classified " + labels + " of " + corpus.workload.testReviews() + " reviews");
+		}
+		blackhole.consume(labels);
+		reviews.reviews += labels;
+	}
+}
@@ -0,0 +1,32 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/*
+ * Workload over a ZipfText corpus, built once per trial for each corpus size
+ */
+@State(Scope.Benchmark)
+public class Corpus {
+
+	static final long SEED = 42;
+
+	@Param({"10000", "100000"})
+	public int sentences;
+
+	Workload workload;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		workload = Workload.create(sentences, SEED);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		workload.close();
+	}
+}
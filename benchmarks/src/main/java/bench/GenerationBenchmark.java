@@ -0,0 +1,44 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * Random bigram sentences per second from the trie of a trained parser
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class GenerationBenchmark {
+
+	@State(Scope.Thread)
+	public static class Seeded {
+
+		Random random;
+
+		@Setup(Level.Iteration)
+		public void setUp() {
+			random = new Random(Corpus.SEED);
+		}
+	}
+
+	@Benchmark
+	public void randomBigramSentence(Corpus corpus, Seeded seeded, Blackhole blackhole) {
+		blackhole.consume(corpus.workload.generateSentence(seeded.random));
+	}
+}
@@ -0,0 +1,33 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * Latency of smoothing the counts of a trained parser
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SmoothingBenchmark {
+
+	@Benchmark
+	public void smoothBigrams(Corpus corpus, Blackhole blackhole) {
+		blackhole.consume(corpus.workload.smoothBigrams());
+	}
+
+	@Benchmark
+	public void smoothTrigrams(Corpus corpus, Blackhole blackhole) {
+		blackhole.consume(corpus.workload.smoothTrigrams());
+	}
+}
@@ -0,0 +1,57 @@
+package bench;
+
+import java.io.IOException;
+import java.util.Random;
+
+/*
+ * The operations the benchmarks time, implemented over the sources of the core
+ * module by NgramWorkload. JMH only accepts benchmarks in a named package and a
+ * named package cannot refer to the default package the sources live in, so
+ * the implementation is loaded by name once per trial, outside the timed code.
+ */
+public interface Workload {
+
+	/*
+	 * Builds a workload over a ZipfText corpus of the given number of sentences
+	 */
+	static Workload create(int sentences, long seed) throws Exception {
+		Workload workload = (Workload) Class.forName("NgramWorkload").getDeclaredConstructor().newInstance();
+		workload.prepare(sentences, seed);
+		return workload;
+	}
+
+	/*
+	 * Generates the training and test text and review files, and trains and smooths a trigram parser
+	 */
+	void prepare(int sentences, long seed) throws IOException;
+
+	/*
+	 * Deletes the review files
+	 */
+	void close();
+
+	long trainingChars();
+
+	long testTokens();
+
+	int testReviews();
+
+	/*
+	 * Counts the training text with a new trigram parser and returns the parser
+	 */
+	Object train();
+
+	Object smoothBigrams();
+
+	Object smoothTrigrams();
+
+	double bigramPerplexity();
+
+	/*
+	 * Trains the two class models on the review training file and classifies the
+	 * test file, like HotelPredictor. Returns the number of labels written.
+	 */
+	int classifyReviews() throws IOException;
+
+	String generateSentence(Random random);
+}